@@ -0,0 +1,62 @@
+package org.example.benchmarks;
+
+import org.example.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// One chat line fanned out to everyone in the room. broadcast() is what the server
+// does (encode once, share the bytes); perRecipientEncoding is the old way. Run with
+// -prof gc to compare allocation per line as well as time.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int recipients;
+
+    private Server server;
+    private StubConnection sender;
+    private final String line = "[12:34:56] alice: the quick brown fox jumps over the lazy dog";
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = Servers.quiet();
+        sender = new StubConnection(server, "sender");
+        server.addClient(sender);
+        for (int i = 0; i < recipients; i++) {
+            server.addClient(new StubConnection(server, "user" + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Servers.close(server);
+    }
+
+    @Benchmark
+    public void broadcast() {
+        sender.broadcastChat(line);
+    }
+
+    @Benchmark
+    public void perRecipientEncoding() {
+        sender.broadcastChatPerRecipient(line);
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+// Building "[HH:mm:ss] user: message" for every chat line:
+//   localTimeToString - what ClientConnection does today
+//   formatter         - a shared DateTimeFormatter
+//   cachedPrefix      - the time part rebuilt only when the second changes
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormattingBenchmark {
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final String username = "alice";
+    private final String message = "the quick brown fox jumps over the lazy dog";
+
+    private long cachedSecond = -1;
+    private String cachedTime;
+
+    @Benchmark
+    public String localTimeToString() {
+        return "[" + LocalTime.now().withNano(0) + "] " + username + ": " + message;
+    }
+
+    @Benchmark
+    public String formatter() {
+        return "[" + LocalTime.now().format(TIME) + "] " + username + ": " + message;
+    }
+
+    @Benchmark
+    public String cachedPrefix() {
+        long second = System.currentTimeMillis() / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTime = "[" + LocalTime.now().format(TIME) + "] ";
+        }
+        return cachedTime + username + ": " + message;
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.benchmarks;
+
+import org.example.server.Frame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Splitting an incoming byte stream into messages; one op is 1000 messages:
+//   readLine     - BufferedReader over the stream, the threaded text protocol
+//   scanLines    - scanning a ByteBuffer for '\n', the NIO text protocol
+//   readFrames   - Frame.read() over a DataInputStream, the threaded binary protocol
+//   decodeFrames - Frame.decode() over a ByteBuffer, the NIO binary protocol
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FramingBenchmark {
+
+    private static final int MESSAGES = 1000;
+
+    @Param({"16", "256"})
+    public int messageLength;
+
+    private byte[] lines;
+    private byte[] frames;
+
+    @Setup
+    public void setUp() {
+        String message = "x".repeat(messageLength);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        for (int i = 0; i < MESSAGES; i++) {
+            text.writeBytes((message + "\n").getBytes(StandardCharsets.UTF_8));
+            ByteBuffer frame = new Frame(Frame.CHAT, 1, message).encode(true);
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            binary.writeBytes(bytes);
+        }
+        lines = text.toByteArray();
+        frames = binary.toByteArray();
+    }
+
+    @Benchmark
+    public void readLine(Blackhole blackhole) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(lines), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            blackhole.consume(line);
+        }
+    }
+
+    @Benchmark
+    public void scanLines(Blackhole blackhole) {
+        ByteBuffer buffer = ByteBuffer.wrap(lines);
+        int lineStart = 0;
+        for (int i = 0; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                blackhole.consume(new String(lines, lineStart, i - lineStart, StandardCharsets.UTF_8));
+                lineStart = i + 1;
+            }
+        }
+    }
+
+    @Benchmark
+    public void readFrames(Blackhole blackhole) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frames));
+        Frame frame;
+        while ((frame = Frame.read(in)) != null) {
+            blackhole.consume(frame);
+        }
+    }
+
+    @Benchmark
+    public void decodeFrames(Blackhole blackhole) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(frames);
+        Frame frame;
+        while ((frame = Frame.decode(buffer)) != null) {
+            blackhole.consume(frame);
+        }
+    }
+}
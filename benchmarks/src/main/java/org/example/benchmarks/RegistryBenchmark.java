@@ -0,0 +1,110 @@
+package org.example.benchmarks;
+
+import org.example.server.ClientConnection;
+import org.example.server.ClientRegistry;
+import org.example.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Clients joining and leaving while others walk the list (every broadcast does), with
+// two churning threads against four iterating ones. registry* is the ClientRegistry the
+// server uses; cowList* is the static CopyOnWriteArrayList Server.clients used to be,
+// where every join or leave copies the whole array.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class RegistryBenchmark {
+
+    @Param({"100", "10000"})
+    public int connected;
+
+    private Server server;
+    private ClientRegistry registry;
+    private List<ClientConnection> cowList;
+    private List<StubConnection> churners;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = Servers.quiet();
+        registry = new ClientRegistry();
+        cowList = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < connected; i++) {
+            StubConnection client = new StubConnection(server, "user" + i);
+            registry.add(client);
+            cowList.add(client);
+        }
+        churners = new ArrayList<>();
+        for (int i = 0; i < 1024; i++) {
+            churners.add(new StubConnection(server, "churn" + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Servers.close(server);
+    }
+
+    private StubConnection randomChurner() {
+        return churners.get(ThreadLocalRandom.current().nextInt(churners.size()));
+    }
+
+    @Benchmark
+    @Group("registry")
+    @GroupThreads(2)
+    public void registryChurn() {
+        StubConnection client = randomChurner();
+        registry.add(client);
+        registry.remove(client);
+    }
+
+    @Benchmark
+    @Group("registry")
+    @GroupThreads(4)
+    public void registryIterate(Blackhole blackhole) {
+        for (ClientConnection client : registry.all()) {
+            blackhole.consume(client);
+        }
+    }
+
+    @Benchmark
+    @Group("cowList")
+    @GroupThreads(2)
+    public void cowListChurn() {
+        StubConnection client = randomChurner();
+        cowList.add(client);
+        cowList.remove(client);
+    }
+
+    @Benchmark
+    @Group("cowList")
+    @GroupThreads(4)
+    public void cowListIterate(Blackhole blackhole) {
+        // Iterates a snapshot, no lock
+        for (ClientConnection client : cowList) {
+            blackhole.consume(client);
+        }
+    }
+}
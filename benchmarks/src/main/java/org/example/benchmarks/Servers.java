@@ -0,0 +1,37 @@
+package org.example.benchmarks;
+
+import org.example.server.Server;
+import org.example.server.ServerListener;
+
+// An in-memory Server for the benchmarks: no socket, no journal, no output. Its log
+// writer and presence flusher still run, so every quiet() needs a close() in the
+// benchmark's trial teardown, or each trial leaves them behind in the fork.
+final class Servers {
+
+    private Servers() {
+    }
+
+    static Server quiet() {
+        System.setProperty("server.journal.enabled", "false");
+        System.setProperty("server.log.level", "OFF");
+        System.setProperty("server.log.viewLevel", "OFF");
+        System.setProperty("server.heartbeat.intervalMillis", "0");
+        return new Server(null, new ServerListener() {
+            @Override
+            public void log(String message) {
+            }
+
+            @Override
+            public void userJoined(String username) {
+            }
+
+            @Override
+            public void userLeft(String username) {
+            }
+        });
+    }
+
+    static void close(Server server) {
+        server.closeServerSocket();
+    }
+}
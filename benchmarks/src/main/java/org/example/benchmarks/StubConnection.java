@@ -0,0 +1,54 @@
+package org.example.benchmarks;
+
+import org.example.server.ClientConnection;
+import org.example.server.Frame;
+import org.example.server.Server;
+import org.example.server.ServerMetrics;
+
+// A connection without a socket. Whatever is queued for it is taken straight back out,
+// as if its writer kept up perfectly, so the benchmarks only measure the sending side.
+class StubConnection extends ClientConnection {
+
+    StubConnection(Server server, String username) {
+        super(server);
+        this.username = username;
+    }
+
+    void broadcastChat(String message) {
+        broadcast(Frame.CHAT, message);
+    }
+
+    // How broadcasting worked before encode-once: every recipient gets a Frame of its
+    // own, encoded for it alone. Everything else (history, send(), metrics) is the same
+    // path broadcast() takes, so the two only differ in the encoding.
+    void broadcastChatPerRecipient(String message) {
+        server.getHistory().record(room, username, new Frame(Frame.CHAT, id, message));
+        long start = System.nanoTime();
+        int recipients = 0;
+        for (ClientConnection client : server.getRooms().members(room)) {
+            if (client != this) {
+                ((StubConnection) client).send(new Frame(Frame.CHAT, id, message));
+                recipients++;
+            }
+        }
+        ServerMetrics metrics = server.getMetrics();
+        metrics.broadcastTime.observe(System.nanoTime() - start);
+        metrics.broadcasts.increment();
+        metrics.broadcastRecipients.add(recipients);
+    }
+
+    @Override
+    protected void onMessageQueued() {
+        outbound.poll();
+    }
+
+    @Override
+    public void closeEverything() {
+        closed.set(true);
+    }
+
+    @Override
+    protected int getRemotePort() {
+        return 0;
+    }
+}
@@ -2,42 +2,202 @@ package org.example.client;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Client {
 
+    // Write coalescing: once messages come in bursts, wait up to the window for more
+    // before flushing, and never gather more than maxBytes into one flush.
+    // Set with -Dclient.batch.windowMicros / -Dclient.batch.maxBytes
+    private static final long BATCH_WINDOW_NANOS =
+            TimeUnit.MICROSECONDS.toNanos(Long.getLong("client.batch.windowMicros", 200));
+    // At least 1 KB: it is also the BufferedOutputStream's size, which must be positive
+    private static final int BATCH_MAX_BYTES = Math.max(1024, Integer.getInteger("client.batch.maxBytes", 16 * 1024));
+
+    // "text" (one line per message, the original protocol) or "binary" (see Frame)
+    private static final boolean BINARY = "binary".equalsIgnoreCase(System.getProperty("client.protocol", "text"));
+
+    // The server pings quiet connections and drops those that do not answer
+    private static final String PING = "/ping";
+    private static final String PONG = "/pong";
+
     private Socket socket;
-    private BufferedReader reader;
-    private BufferedWriter writer;
+    private InputStream in;
+    private OutputStream writer;
+    private boolean joinSent = false;
     private MessageListener messageListener;
+    private final LinkedBlockingQueue<String> outgoing = new LinkedBlockingQueue<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private Thread writerThread;
+    private volatile boolean closed = false;
+    // Binary mode: the room's members, kept up to date by the server's presence stream
+    private final ConcurrentSkipListSet<String> roomMembers = new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER);
+    private volatile boolean presenceKnown = false;
 
     public Client(Socket socket, MessageListener listener) {
         try {
             this.socket = socket;
             this.messageListener = listener;
-            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.writer = new BufferedOutputStream(socket.getOutputStream(), BATCH_MAX_BYTES);
+
+            writerThread = new Thread(this::writeLoop, "client-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
         } catch (IOException e) {
             closeEverything();
         }
     }
 
+    // Queued; the writer thread sends it (possibly together with others) and flushes once
     public void sendMessageToServer(String message) {
+        // With the presence stream the whole list is already here, no need to ask. With
+        // arguments (a prefix, a page size, "more") it is the server's paging that is wanted.
+        if (presenceKnown && message.trim().equalsIgnoreCase("allUsers") && messageListener != null) {
+            StringBuilder list = new StringBuilder("📋 Active users (" + roomMembers.size() + "):");
+            for (String member : roomMembers) {
+                list.append('\n').append("   • ").append(member);
+            }
+            messageListener.onMessageReceived(list.toString());
+            return;
+        }
+        if (!closed) {
+            outgoing.add(message);
+        }
+    }
+
+    private void writeLoop() {
+        boolean bursting = false;
         try {
-            writer.write(message);
-            writer.newLine();
-            writer.flush();
+            while (!closed) {
+                String message = outgoing.take();
+                writeLock.lock();
+                try {
+                    int size = write(message);
+                    int lines = 1;
+                    long deadline = System.nanoTime() + BATCH_WINDOW_NANOS;
+
+                    // Only linger for more when the previous flush was a burst as well
+                    while (size < BATCH_MAX_BYTES) {
+                        String next = outgoing.poll();
+                        if (next == null && bursting) {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining > 0) {
+                                next = outgoing.poll(remaining, TimeUnit.NANOSECONDS);
+                            }
+                        }
+                        if (next == null) {
+                            break;
+                        }
+                        size += write(next);
+                        lines++;
+                    }
+
+                    writer.flush();
+                    bursting = lines > 1;
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            // closeEverything() interrupts us
         } catch (IOException e) {
             closeEverything();
         }
     }
 
+    // Returns the number of bytes written
+    private int write(String message) throws IOException {
+        if (!BINARY) {
+            if (!joinSent) {
+                // A "/pong" right after the username tells the server we answer pings
+                joinSent = true;
+                message = message + "\n" + PONG;
+            }
+            byte[] line = (message + "\n").getBytes(StandardCharsets.UTF_8);
+            writer.write(line);
+            return line.length;
+        }
+
+        // Binary mode: the first message is the username, commands become typed frames
+        byte type;
+        if (!joinSent) {
+            writer.write(Frame.MAGIC);
+            writer.write(Frame.VERSION);
+            joinSent = true;
+            // Subscribed to the presence stream right after joining
+            int size = Frame.write(writer, Frame.JOIN, message);
+            return size + Frame.write(writer, Frame.PRESENCE, "");
+        } else if (message.equalsIgnoreCase("bye") || message.equalsIgnoreCase("end")) {
+            type = Frame.LEAVE;
+            message = "";
+        } else if (message.equalsIgnoreCase("allUsers")) {
+            type = Frame.USER_LIST;
+            message = "";
+        } else if (message.regionMatches(true, 0, "allUsers ", 0, 9)) {
+            type = Frame.USER_LIST;
+            message = message.substring(9);
+        } else if (message.regionMatches(true, 0, "/join ", 0, 6)) {
+            type = Frame.ROOM_JOIN;
+            message = message.substring(6);
+        } else if (message.equalsIgnoreCase("/leave")) {
+            type = Frame.ROOM_LEAVE;
+            message = "";
+        } else if (message.equalsIgnoreCase("/rooms")) {
+            type = Frame.ROOM_LIST;
+            message = "";
+        } else if (message.startsWith("@") && message.indexOf(' ') > 1) {
+            type = Frame.DIRECT;
+            message = message.substring(1);
+        } else if (message.regionMatches(true, 0, "/history ", 0, 9)) {
+            type = Frame.HISTORY;
+            message = message.substring(9);
+        } else if (message.regionMatches(true, 0, "/search ", 0, 8)) {
+            type = Frame.SEARCH;
+            message = message.substring(8);
+        } else if (message.equalsIgnoreCase(PONG)) {
+            type = Frame.PONG;
+            message = "";
+        } else if (message.equalsIgnoreCase(PING)) {
+            type = Frame.PING;
+            message = "";
+        } else if (message.equalsIgnoreCase("/presence")) {
+            type = Frame.PRESENCE;
+            message = "";
+        } else {
+            type = Frame.CHAT;
+        }
+        return Frame.write(writer, type, message);
+    }
+
     public void startListening() {
         new Thread(() -> {
             try {
-                String message;
-                while ((message = reader.readLine()) != null) {
-                    if (messageListener != null) {
-                        messageListener.onMessageReceived(message);
+                if (BINARY) {
+                    DataInputStream data = new DataInputStream(in);
+                    Frame frame;
+                    while ((frame = Frame.read(data)) != null) {
+                        if (frame.getType() == Frame.PING) {
+                            sendMessageToServer(PONG);
+                        } else if (frame.getType() == Frame.PRESENCE) {
+                            applyPresence(frame.getPayload());
+                        } else if (frame.getType() != Frame.PONG && messageListener != null) {
+                            messageListener.onMessageReceived(frame.getPayload());
+                        }
+                    }
+                } else {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                    String message;
+                    while ((message = reader.readLine()) != null) {
+                        if (message.equals(PING)) {
+                            sendMessageToServer(PONG);
+                        } else if (!message.equals(PONG) && messageListener != null) {
+                            messageListener.onMessageReceived(message);
+                        }
                     }
                 }
             } catch (IOException e) {
@@ -46,9 +206,44 @@ public class Client {
         }).start();
     }
 
+    // "=" starts over with a snapshot; "+name" and "-name" are applied as set operations,
+    // so a change the snapshot already contains does no harm
+    private void applyPresence(String payload) {
+        for (String line : payload.split("\n")) {
+            if (line.equals("=")) {
+                roomMembers.clear();
+                presenceKnown = true;
+            } else if (line.startsWith("+")) {
+                roomMembers.add(line.substring(1));
+            } else if (line.startsWith("-")) {
+                roomMembers.remove(line.substring(1));
+            }
+        }
+    }
+
     public void closeEverything() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (writerThread != null) writerThread.interrupt();
+
+        // Send whatever is still queued (e.g. "bye") before the socket goes away
+        writeLock.lock();
+        try {
+            String message;
+            while (writer != null && (message = outgoing.poll()) != null) {
+                write(message);
+            }
+            if (writer != null) writer.flush();
+        } catch (IOException e) {
+            // Connection already gone, nothing left to deliver
+        } finally {
+            writeLock.unlock();
+        }
+
         try {
-            if (reader != null) reader.close();
+            if (in != null) in.close();
             if (writer != null) writer.close();
             if (socket != null) socket.close();
         } catch (IOException e) {
@@ -1,6 +1,8 @@
 package org.example.client;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.geometry.Insets;
@@ -8,7 +10,6 @@ import javafx.geometry.Pos;
 import javafx.scene.control.*;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.HBox;
-import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.scene.text.Text;
@@ -16,15 +17,17 @@ import javafx.scene.text.TextFlow;
 
 import java.net.Socket;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClientController implements Initializable, MessageListener {
 
     @FXML
-    private ScrollPane sp_main;
-    @FXML
-    private VBox vbox_messages;
+    private ListView<ChatLine> list_messages;
     @FXML
     private TextField tf_message;
     @FXML
@@ -42,6 +45,18 @@ public class ClientController implements Initializable, MessageListener {
     private String serverIP;
     private int serverPort;
 
+    // How many messages the pane keeps; older ones are dropped (-Dclient.history.capacity)
+    private static final int HISTORY_CAPACITY = Integer.getInteger("client.history.capacity", 5000);
+    // Filled by the listener thread, emptied once per frame by messageDrainer
+    private final ConcurrentLinkedQueue<String> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private AnimationTimer messageDrainer;
+
+    private enum Kind { OWN, PEER, SYSTEM }
+
+    private record ChatLine(String text, Kind kind) {
+    }
+
     public void setConnectionDetails(String serverIP, int serverPort) {
         this.serverIP = serverIP;
         this.serverPort = serverPort;
@@ -55,6 +70,15 @@ public class ClientController implements Initializable, MessageListener {
         // Initialize status
         updateStatus("CONNECTING", Color.GRAY);
 
+        // Virtualized message pane: only the visible rows have nodes
+        list_messages.setCellFactory(lv -> new ChatCell());
+
+        messageDrainer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drainIncoming();
+            }
+        };
     }
 
     public void startClientConnection() {
@@ -77,10 +101,6 @@ public class ClientController implements Initializable, MessageListener {
             e.printStackTrace();
         }
 
-        // Auto-scroll to bottom when new messages arrive
-        vbox_messages.heightProperty().addListener((obs, oldVal, newVal) ->
-                sp_main.setVvalue((Double) newVal));
-
         // Send button action
         button_send.setOnAction(event -> sendMessage());
 
@@ -166,67 +186,104 @@ public class ClientController implements Initializable, MessageListener {
     }
 
     // ===== RECEIVE MESSAGE FROM SERVER =====
+    // Called on the listener thread: only queue the line, the next frame shows it
     @Override
     public void onMessageReceived(String message) {
-        Platform.runLater(() -> {
+        incoming.add(message);
+        if (drainScheduled.compareAndSet(false, true)) {
+            Platform.runLater(() -> messageDrainer.start());
+        }
+    }
+
+    // FX thread, at most once per pulse: apply everything received since the last frame
+    private void drainIncoming() {
+        List<ChatLine> batch = new ArrayList<>();
+        String message;
+        while ((message = incoming.poll()) != null) {
             // Check if it's a special server message
             if (message.startsWith("[SERVER]") || message.contains("active users:")) {
-                addServerMessage(message, true); // Special styling for server messages
+                batch.add(new ChatLine(message, Kind.SYSTEM)); // Special styling for server messages
             } else {
-                addServerMessage(message, false);
+                batch.add(new ChatLine(message, Kind.PEER));
             }
-        });
+        }
+        if (!batch.isEmpty()) {
+            addLines(batch);
+            return;
+        }
+
+        // Nothing left: stop asking for pulses until the next message
+        messageDrainer.stop();
+        drainScheduled.set(false);
+        if (!incoming.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+            messageDrainer.start();
+        }
     }
 
     // ===== UI HELPERS =====
     private void addOwnMessage(String message) {
-        HBox hbox = new HBox();
-        hbox.setAlignment(Pos.CENTER_RIGHT);
-        hbox.setPadding(new Insets(5, 10, 5, 10));
-
-        Text text = new Text(message);
-        text.setFill(Color.WHITE);
-
-        TextFlow flow = new TextFlow(text);
-        flow.setStyle(
-                "-fx-background-color: rgb(12,125,242);" +
-                        "-fx-background-radius: 20px;" +
-                        "-fx-padding: 8 15 8 15;"
-        );
-
-        hbox.getChildren().add(flow);
-        vbox_messages.getChildren().add(hbox);
+        addLines(List.of(new ChatLine(message, Kind.OWN)));
     }
 
-    private void addServerMessage(String message, boolean isSystemMessage) {
-        HBox hbox = new HBox();
-        hbox.setAlignment(Pos.CENTER_LEFT);
-        hbox.setPadding(new Insets(5, 10, 5, 10));
-
-        Text text = new Text(message);
+    private void addLines(List<ChatLine> lines) {
+        ObservableList<ChatLine> items = list_messages.getItems();
+        items.addAll(lines);
+        int overflow = items.size() - HISTORY_CAPACITY;
+        if (overflow > 0) {
+            items.remove(0, overflow);
+        }
+        // Auto-scroll to bottom when new messages arrive
+        list_messages.scrollTo(items.size() - 1);
+    }
 
-        TextFlow flow = new TextFlow(text);
+    // One reusable bubble per visible row
+    private static class ChatCell extends ListCell<ChatLine> {
+        private final Text text = new Text();
+        private final TextFlow flow = new TextFlow(text);
+        private final HBox hbox = new HBox(flow);
 
-        if (isSystemMessage) {
-            // System message styling
-            flow.setStyle(
-                    "-fx-background-color: rgb(255, 228, 181);" +
-                            "-fx-background-radius: 20px;" +
-                            "-fx-padding: 8 15 8 15;"
-            );
-            text.setFill(Color.DARKBLUE);
-        } else {
-            // Regular message styling
-            flow.setStyle(
-                    "-fx-background-color: rgb(233,233,235);" +
-                            "-fx-background-radius: 20px;" +
-                            "-fx-padding: 8 15 8 15;"
-            );
-            text.setFill(Color.BLACK);
+        ChatCell() {
+            hbox.setPadding(new Insets(5, 10, 5, 10));
         }
 
-        hbox.getChildren().add(flow);
-        vbox_messages.getChildren().add(hbox);
+        @Override
+        protected void updateItem(ChatLine item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty || item == null) {
+                setGraphic(null);
+                return;
+            }
+            text.setText(item.text());
+
+            if (item.kind() == Kind.OWN) {
+                hbox.setAlignment(Pos.CENTER_RIGHT);
+                text.setFill(Color.WHITE);
+                flow.setStyle(
+                        "-fx-background-color: rgb(12,125,242);" +
+                                "-fx-background-radius: 20px;" +
+                                "-fx-padding: 8 15 8 15;"
+                );
+            } else if (item.kind() == Kind.SYSTEM) {
+                // System message styling
+                hbox.setAlignment(Pos.CENTER_LEFT);
+                flow.setStyle(
+                        "-fx-background-color: rgb(255, 228, 181);" +
+                                "-fx-background-radius: 20px;" +
+                                "-fx-padding: 8 15 8 15;"
+                );
+                text.setFill(Color.DARKBLUE);
+            } else {
+                // Regular message styling
+                hbox.setAlignment(Pos.CENTER_LEFT);
+                flow.setStyle(
+                        "-fx-background-color: rgb(233,233,235);" +
+                                "-fx-background-radius: 20px;" +
+                                "-fx-padding: 8 15 8 15;"
+                );
+                text.setFill(Color.BLACK);
+            }
+            setGraphic(hbox);
+        }
     }
 
     private void updateStatus(String status, Color color) {
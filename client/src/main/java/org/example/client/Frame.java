@@ -0,0 +1,87 @@
+package org.example.client;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Binary framing, same layout as the server's Frame:
+//
+//     int length | byte type | long senderId | UTF-8 payload
+//
+// A binary client opens the connection with MAGIC + VERSION, then sends a JOIN frame
+// with its username. Enabled with -Dclient.protocol=binary.
+public final class Frame {
+
+    public static final byte CHAT = 1;
+    public static final byte JOIN = 2;
+    public static final byte LEAVE = 3;
+    public static final byte USER_LIST = 4;
+    public static final byte SYSTEM = 5;
+    public static final byte ROOM_JOIN = 6;
+    public static final byte ROOM_LEAVE = 7;
+    public static final byte ROOM_LIST = 8;
+    public static final byte DIRECT = 9;
+    public static final byte HISTORY = 10;
+    public static final byte SEARCH = 11;
+    // Keepalive: whoever gets a PING answers with a PONG (text: "/ping" and "/pong")
+    public static final byte PING = 12;
+    public static final byte PONG = 13;
+    // Presence stream, binary only: the client sends an empty one to subscribe and then
+    // gets lines of "=" (a snapshot of the room follows), "+name" and "-name"
+    public static final byte PRESENCE = 14;
+
+    public static final int MAGIC = 0x00;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = 1 + 8;
+    private static final int MAX_PAYLOAD_LENGTH = 64 * 1024;
+
+    private final byte type;
+    private final String payload;
+
+    private Frame(byte type, String payload) {
+        this.type = type;
+        this.payload = payload;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    // Returns the number of bytes written
+    public static int write(OutputStream out, byte type, String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(4 + HEADER_LENGTH);
+        header.putInt(HEADER_LENGTH + bytes.length);
+        header.put(type);
+        header.putLong(0); // the server fills in who we are
+        out.write(header.array());
+        out.write(bytes);
+        return header.capacity() + bytes.length;
+    }
+
+    // Returns null on a clean end of stream
+    public static Frame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < HEADER_LENGTH || length > HEADER_LENGTH + MAX_PAYLOAD_LENGTH) {
+            throw new IOException("Bad frame length: " + length);
+        }
+        byte type = in.readByte();
+        in.readLong(); // sender id, not shown in the UI
+        byte[] bytes = new byte[length - HEADER_LENGTH];
+        in.readFully(bytes);
+        return new Frame(type, new String(bytes, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free latency histogram in microseconds. Values are bucketed by power of two,
+// each power split into 16 linear sub-buckets, so any recorded value is reported
+// within about 6% of itself; that is plenty for p50/p99/p999 and costs one atomic
+// increment per sample no matter how many listener threads record at once.
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Up to 2^40 microseconds, far beyond any run
+    private static final int MAX_EXPONENT = 40;
+
+    // Group 0 holds 0..15 exactly; group g > 0 holds [16 << (g - 1), 32 << (g - 1))
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT + 2) * SUB_BUCKETS);
+
+    public void record(long micros) {
+        counts.incrementAndGet(indexOf(Math.max(0, micros)));
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100), in microseconds
+    public long percentile(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(counts.length() - 1);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Keep the top five bits: 1 followed by the sub-bucket
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (exponent > MAX_EXPONENT) {
+            return (MAX_EXPONENT + 2) * SUB_BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> exponent) - SUB_BUCKETS;
+        return (exponent + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int index) {
+        int group = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        if (group == 0) {
+            return subBucket;
+        }
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (group - 1)) - 1;
+    }
+}
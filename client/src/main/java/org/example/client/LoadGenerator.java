@@ -0,0 +1,130 @@
+package org.example.client;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless load test: opens many Clients against a server on this machine, has them
+// chat at a fixed rate and measures how long each broadcast takes to reach everyone
+// else. Every message carries the time it was meant to be sent, so a server that
+// falls behind shows up in the latency instead of silently lowering the send rate.
+//
+//     java -cp client-1.0-SNAPSHOT.jar org.example.client.LoadGenerator
+//          [ServerIPAddress] [PortNumber] [Clients] [MessagesPerSecondPerClient] [Seconds]
+//
+// -Dload.messageBytes pads each message to roughly that size (default 64).
+public class LoadGenerator {
+
+    private static final String MARKER = "LT ";
+
+    private final String host;
+    private final int port;
+    private final int clientCount;
+    private final double ratePerClient;
+    private final int seconds;
+    private final int messageBytes = Integer.getInteger("load.messageBytes", 64);
+    // Tells our lines apart from history replayed from an earlier run
+    private final long runId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
+    private final List<Client> clients = new ArrayList<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder received = new LongAdder();
+    private long sent;
+
+    public LoadGenerator(String host, int port, int clientCount, double ratePerClient, int seconds) {
+        this.host = host;
+        this.port = port;
+        this.clientCount = clientCount;
+        this.ratePerClient = ratePerClient;
+        this.seconds = seconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        double rate = args.length > 3 ? Double.parseDouble(args[3]) : 1;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+
+        new LoadGenerator(host, port, clients, rate, seconds).run();
+    }
+
+    public void run() throws IOException, InterruptedException {
+        System.out.printf("Connecting %d clients to %s:%d...%n", clientCount, host, port);
+        for (int i = 0; i < clientCount; i++) {
+            Client client = new Client(new Socket(host, port), this::onMessage);
+            client.startListening();
+            client.sendMessageToServer("load-" + String.format("%04x", runId & 0xFFFF) + "-" + i);
+            clients.add(client);
+        }
+        // Let the joins (and their replayed history) settle before measuring
+        Thread.sleep(1000);
+
+        System.out.printf("Sending %.1f msg/s per client for %d s...%n", ratePerClient, seconds);
+        long start = System.nanoTime();
+        sendFor(start);
+        long sendNanos = System.nanoTime() - start;
+
+        // Give the last broadcasts time to arrive
+        Thread.sleep(1000);
+        report(sendNanos);
+
+        for (Client client : clients) {
+            client.sendMessageToServer("bye");
+            client.closeEverything();
+        }
+    }
+
+    // One thread paces every client, round robin, on a fixed schedule
+    private void sendFor(long start) {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / (ratePerClient * clientCount));
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        String padding = "x".repeat(Math.max(0, messageBytes - 40));
+        long next = start;
+        int sender = 0;
+        while (next < end) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            clients.get(sender).sendMessageToServer(MARKER + runId + " " + next + " " + padding);
+            sent++;
+            sender = (sender + 1) % clientCount;
+            next += interval;
+        }
+    }
+
+    // Listener threads: "[time] user: LT <runId> <intendedSendNanos> <padding>"
+    private void onMessage(String message) {
+        int marker = message.indexOf(MARKER);
+        if (marker < 0) {
+            return;
+        }
+        String[] parts = message.substring(marker + MARKER.length()).split(" ", 3);
+        if (parts.length < 2 || !parts[0].equals(Long.toString(runId))) {
+            return;
+        }
+        long sentAt = Long.parseLong(parts[1]);
+        latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAt));
+        received.increment();
+    }
+
+    private void report(long sendNanos) {
+        long delivered = received.sum();
+        long expected = sent * (clientCount - 1);
+        double sendSeconds = sendNanos / 1e9;
+        System.out.println();
+        System.out.printf("Clients:          %d%n", clientCount);
+        System.out.printf("Sent:             %d (%.0f msg/s)%n", sent, sent / sendSeconds);
+        System.out.printf("Delivered:        %d of %d (%.0f msg/s)%n", delivered, expected, delivered / sendSeconds);
+        System.out.printf("Latency p50:      %.2f ms%n", latency.percentile(50) / 1000.0);
+        System.out.printf("Latency p99:      %.2f ms%n", latency.percentile(99) / 1000.0);
+        System.out.printf("Latency p99.9:    %.2f ms%n", latency.percentile(99.9) / 1000.0);
+        System.out.printf("Latency max:      %.2f ms%n", latency.percentile(100) / 1000.0);
+    }
+}
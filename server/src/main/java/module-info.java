@@ -3,6 +3,7 @@ module org.example.server {
     requires javafx.fxml;
 
     requires org.controlsfx.controls;
+    requires jdk.httpserver;
 
     opens org.example.server to javafx.fxml;
     exports org.example.server;
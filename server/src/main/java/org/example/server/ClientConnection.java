@@ -0,0 +1,615 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Chat protocol shared by every kind of connection (thread-per-client or NIO loop).
+// Subclasses only deal with moving bytes; the commands live here.
+public abstract class ClientConnection {
+
+    private static final int HISTORY_PAGE_SIZE = Integer.getInteger("server.history.pageSize", 50);
+    private static final int USER_PAGE_SIZE = Integer.getInteger("server.userList.pageSize", 100);
+    private static final int USER_PAGE_MAX = Integer.getInteger("server.userList.maxPageSize", 1000);
+    private static final int MAX_USERNAME_LENGTH = 32;
+    private static final int SEARCH_RESULTS = Integer.getInteger("server.search.maxResults", 20);
+
+    protected final Server server;
+    protected final long id;
+    protected String username;
+    protected boolean readOnly = false;
+    // Negotiated from the first byte the client sends, see Frame
+    protected boolean binary = false;
+    // The room this client talks in and hears from
+    protected volatile String room = RoomRegistry.LOBBY;
+    // Everything sent to this client waits here until its writer drains it
+    protected final OutboundQueue outbound = OutboundQueue.fromConfig();
+    // Null when server.rateLimit is off; only the reader touches it
+    protected final RateLimiter rateLimiter = RateLimiter.fromConfig();
+    protected final AtomicBoolean closed = new AtomicBoolean(false);
+    // The first reason given wins; counted once the connection is actually closed
+    private final AtomicReference<ServerMetrics.Disconnect> disconnectReason = new AtomicReference<>();
+    // Where "/history more" picks up; -1 when there is nothing left. Written by the
+    // journal reader that fetched the last page.
+    private volatile long historySince;
+    private volatile long historyCursor = -1;
+    // One journal read (a history page or a search) at a time per client, so pages
+    // arrive in order and one client cannot fill the reader pool's queue
+    private final AtomicBoolean readingJournal = new AtomicBoolean(false);
+    // Where "allUsers more" picks up; null when there is nothing left
+    private String userListPrefix = "";
+    private String userListCursor;
+    private int userListLimit = USER_PAGE_SIZE;
+    // When the client last sent anything; the Heartbeat pings it once this gets old
+    private volatile long lastSeenNanos = System.nanoTime();
+    // This connection's one entry in the Heartbeat's timer wheel
+    private volatile TimerWheel.Timeout idleTimeout;
+    // When the Heartbeat last pinged this client, 0 if never (wheel thread only)
+    private long pingSentNanos;
+    // A text client that has sent "/ping" or "/pong" understands pings; older ones
+    // would show "/ping" as a chat line and never answer
+    private volatile boolean textPings;
+    // Asked for the presence stream: gets PRESENCE deltas instead of join/leave lines
+    private volatile boolean presenceSubscriber;
+
+    protected ClientConnection(Server server) {
+        this.server = server;
+        this.id = server.getClients().nextId();
+        if (server.getHeartbeat() != null) {
+            server.getHeartbeat().watch(this);
+        }
+    }
+
+    // First line (or JOIN frame) sent by the client is its username
+    protected void onUsername(String name) {
+        lastSeenNanos = System.nanoTime();
+        this.username = cleanUsername(name);
+
+        // Check if username is valid
+        if (username == null || username.trim().isEmpty() || username.equals("READ_ONLY")) {
+            readOnly = true;
+            username = "READ_ONLY_" + getRemotePort();
+        }
+
+        // Usernames are unique: someone asking for a taken name gets a numbered variant
+        String requested = username;
+        for (int n = 2; !server.getClients().reserveUsername(username, this); n++) {
+            username = requested + "_" + n;
+        }
+
+        if (readOnly) {
+            sendMessage("[SERVER] You are in READ-ONLY MODE. You cannot send messages.");
+            server.log("👤 Read-only client connected: " + username);
+        } else {
+            if (!username.equals(requested)) {
+                sendMessage("[SERVER] The name " + requested + " is taken, you are " + username + ".");
+            }
+            server.log("👤 User joined: " + username);
+        }
+
+        // Only now visible to broadcasts and the user list; the room hears of it in
+        // the next presence digest
+        server.addClient(this);
+        replayRecent();
+    }
+
+    // Names end up in "[time] name:" prefixes, digests, user lists and the cluster's
+    // "name\troom" lines, so control characters (tabs, line breaks) are dropped and the
+    // length is capped. Null if nothing is left.
+    private static String cleanUsername(String name) {
+        if (name == null) {
+            return null;
+        }
+        StringBuilder clean = new StringBuilder(Math.min(name.length(), MAX_USERNAME_LENGTH));
+        name.codePoints()
+                .filter(c -> !Character.isISOControl(c))
+                .forEach(clean::appendCodePoint);
+        String trimmed = clean.toString().trim();
+        if (trimmed.length() > MAX_USERNAME_LENGTH) {
+            int end = Character.isHighSurrogate(trimmed.charAt(MAX_USERNAME_LENGTH - 1))
+                    ? MAX_USERNAME_LENGTH - 1 : MAX_USERNAME_LENGTH;
+            trimmed = trimmed.substring(0, end).trim();
+        }
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    // Text protocol: turns one line after the username into a typed request.
+    // Returns false when the client wants to leave.
+    protected boolean onMessage(String message) {
+        if (message.equalsIgnoreCase("bye") || message.equalsIgnoreCase("end")) {
+            return onFrame(Frame.LEAVE, "");
+        }
+        if (message.equalsIgnoreCase("allUsers")) {
+            return onFrame(Frame.USER_LIST, "");
+        }
+        if (message.regionMatches(true, 0, "allUsers ", 0, 9)) {
+            return onFrame(Frame.USER_LIST, message.substring(9));
+        }
+        if (message.regionMatches(true, 0, "/join ", 0, 6)) {
+            return onFrame(Frame.ROOM_JOIN, message.substring(6));
+        }
+        if (message.equalsIgnoreCase("/leave")) {
+            return onFrame(Frame.ROOM_LEAVE, "");
+        }
+        if (message.equalsIgnoreCase("/rooms")) {
+            return onFrame(Frame.ROOM_LIST, "");
+        }
+        if (message.startsWith("@") && message.indexOf(' ') > 1) {
+            return onFrame(Frame.DIRECT, message.substring(1));
+        }
+        if (message.regionMatches(true, 0, "/history ", 0, 9)) {
+            return onFrame(Frame.HISTORY, message.substring(9));
+        }
+        if (message.regionMatches(true, 0, "/search ", 0, 8)) {
+            return onFrame(Frame.SEARCH, message.substring(8));
+        }
+        if (message.equalsIgnoreCase("/pong")) {
+            textPings = true;
+            return onFrame(Frame.PONG, "");
+        }
+        if (message.equalsIgnoreCase("/ping")) {
+            textPings = true;
+            return onFrame(Frame.PING, "");
+        }
+        if (message.equalsIgnoreCase("/presence")) {
+            return onFrame(Frame.PRESENCE, "");
+        }
+        return onFrame(Frame.CHAT, message);
+    }
+
+    // Binary clients land here directly, text clients through onMessage()
+    protected boolean onFrame(byte type, String payload) {
+        lastSeenNanos = System.nanoTime();
+
+        // Keepalives, from read-only clients too; not counted as messages
+        if (type == Frame.PONG) {
+            return true;
+        }
+        if (type == Frame.PING) {
+            send(new Frame(Frame.PONG, 0, "/pong"));
+            return true;
+        }
+        // Read-only clients only listen, so they are the ones who want it most
+        if (type == Frame.PRESENCE) {
+            subscribePresence();
+            return true;
+        }
+
+        server.getMetrics().messagesIn.increment();
+
+        // Handle read-only mode
+        if (readOnly) {
+            sendMessage("[SERVER] You cannot send messages in READ-ONLY mode.");
+            return true;
+        }
+
+        switch (type) {
+            case Frame.LEAVE:
+                setDisconnectReason(ServerMetrics.Disconnect.LEAVE);
+                server.log("🔴 User disconnected: " + username);
+                return false;
+            case Frame.USER_LIST:
+                sendActiveUsers(payload.trim());
+                return true;
+            case Frame.ROOM_JOIN:
+                changeRoom(RoomRegistry.normalize(payload));
+                return true;
+            case Frame.ROOM_LEAVE:
+                changeRoom(RoomRegistry.LOBBY);
+                return true;
+            case Frame.ROOM_LIST:
+                sendRooms();
+                return true;
+            case Frame.DIRECT:
+                if (!isMuted()) {
+                    sendDirect(payload);
+                }
+                return true;
+            case Frame.HISTORY:
+                sendHistory(payload.trim());
+                return true;
+            case Frame.SEARCH:
+                sendSearchResults(payload);
+                return true;
+            case Frame.CHAT:
+                if (isMuted()) {
+                    return true;
+                }
+                String formatted = "[" + LocalTime.now().withNano(0) + "] " + username + ": " + payload;
+                broadcast(Frame.CHAT, formatted);
+                // DEBUG: the journal already keeps every line, the log file does not need to
+                if (server.isLogEnabled(ServerLog.Level.DEBUG)) {
+                    server.log(ServerLog.Level.DEBUG, "💬 " + username + ": " + payload);
+                }
+                return true;
+            default:
+                sendMessage("[SERVER] Unsupported frame type " + type);
+                return true;
+        }
+    }
+
+    // Readers call this after every line or frame they hand to the protocol. Returns how
+    // long to stop reading from the socket (0 to go on), which lets TCP push back on a
+    // client sending faster than its limits.
+    protected long admit(int bytes) {
+        if (rateLimiter == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long pause = rateLimiter.consume(bytes, now);
+        if (pause == 0) {
+            return 0;
+        }
+        server.getMetrics().rateLimited.increment();
+        switch (rateLimiter.strike(now)) {
+            case MUTE -> {
+                server.getMetrics().rateLimitMutes.increment();
+                sendMessage("[SERVER] You are sending too fast. Your messages are dropped for the next "
+                        + rateLimiter.getMuteMillis() / 1000 + " s.");
+                server.log(ServerLog.Level.WARN, "🔇 " + username + " is flooding, muted");
+            }
+            case KICK -> {
+                server.log(ServerLog.Level.WARN, "🚫 " + username + " kept flooding, disconnecting");
+                disconnect(ServerMetrics.Disconnect.RATE_LIMITED);
+            }
+            case NONE -> {
+            }
+        }
+        return pause;
+    }
+
+    // The stream starts with a snapshot of the room; from then on the client applies
+    // the deltas to it instead of polling allUsers
+    private void subscribePresence() {
+        if (!binary) {
+            sendMessage("[SERVER] The presence stream needs the binary protocol.");
+            return;
+        }
+        presenceSubscriber = true;
+        send(server.getPresence().snapshot(room));
+    }
+
+    // Dropped without a reply: the client was told once, when the mute started in
+    // admit(), and answering every dropped line would hand a flooder its amplification
+    private boolean isMuted() {
+        return rateLimiter != null && rateLimiter.isMuted(System.nanoTime());
+    }
+
+    private void changeRoom(String newRoom) {
+        if (newRoom == null) {
+            sendMessage("[SERVER] Room names must be 1-" + RoomRegistry.MAX_NAME_LENGTH + " characters.");
+            return;
+        }
+        String oldRoom = room;
+        if (newRoom.equals(oldRoom)) {
+            sendMessage("[SERVER] You are already in #" + newRoom + ".");
+            return;
+        }
+
+        // Under the same lock as Server.removeClient(): a close racing the move either
+        // finds the client in the new room or finds it already gone
+        synchronized (this) {
+            if (isClosed()) {
+                return;
+            }
+            server.getRooms().leave(oldRoom, this);
+            room = newRoom;
+            server.getRooms().join(newRoom, this);
+            server.memberLeft(oldRoom, username, null);
+            server.memberJoined(newRoom, username, null);
+            if (server.getCluster() != null) {
+                server.getCluster().userMoved(username, newRoom);
+            }
+        }
+        if (presenceSubscriber) {
+            send(server.getPresence().snapshot(newRoom));
+        }
+
+        sendMessage("[SERVER] You are now in #" + newRoom + ".");
+        server.log("🚪 " + username + " moved from #" + oldRoom + " to #" + newRoom);
+        historyCursor = -1;
+        userListCursor = null;
+        replayRecent();
+    }
+
+    // The room's last few lines, straight from the in-memory ring: already encoded
+    private void replayRecent() {
+        List<Frame> recent = server.getHistory().recent(room);
+        if (recent.isEmpty()) {
+            return;
+        }
+        sendMessage("[SERVER] Last " + recent.size() + " message(s) in #" + room + ":");
+        for (Frame frame : recent) {
+            send(frame);
+        }
+    }
+
+    // "/history <time>" starts a listing of the room since then, "/history more" pages on.
+    // The page is read on a journal reader, not on this client's reader or NIO loop.
+    private void sendHistory(String since) {
+        long sinceMillis;
+        long cursor;
+        if (since.equalsIgnoreCase("more")) {
+            sinceMillis = historySince;
+            cursor = historyCursor;
+            if (cursor < 0) {
+                sendMessage("[SERVER] No more history. Usage: /history HH:mm or /history yyyy-MM-ddTHH:mm");
+                return;
+            }
+        } else {
+            try {
+                sinceMillis = SearchQuery.parseTime(since);
+                cursor = 0;
+            } catch (DateTimeParseException e) {
+                sendMessage("[SERVER] Usage: /history HH:mm or /history yyyy-MM-ddTHH:mm");
+                return;
+            }
+        }
+        if (!readingJournal.compareAndSet(false, true)) {
+            sendMessage("[SERVER] Still reading the journal for you, try again in a moment.");
+            return;
+        }
+
+        String inRoom = room;
+        server.readJournal(() -> {
+            try {
+                MessageHistory.Page page;
+                try {
+                    page = server.getHistory().since(inRoom, sinceMillis, cursor, HISTORY_PAGE_SIZE);
+                } catch (IOException e) {
+                    sendMessage("[SERVER] History is not available right now.");
+                    server.log(ServerLog.Level.ERROR, "❌ Could not read history: " + e.getMessage());
+                    return;
+                }
+                sendMessage("[SERVER] History of #" + inRoom + " (" + page.frames().size() + " message(s)):");
+                for (Frame frame : page.frames()) {
+                    send(frame);
+                }
+                // A move to another room meanwhile has already ended this listing
+                if (inRoom.equals(room)) {
+                    historySince = sinceMillis;
+                    historyCursor = page.nextOffset();
+                    if (page.nextOffset() >= 0) {
+                        sendMessage("[SERVER] Type /history more for the next page.");
+                    }
+                }
+            } finally {
+                readingJournal.set(false);
+            }
+        });
+    }
+
+    // "/search [from:user] [since:time] [until:time] words", limited to this client's room
+    private void sendSearchResults(String text) {
+        SearchQuery query;
+        try {
+            query = SearchQuery.parse(text).inRoom(room);
+        } catch (DateTimeParseException e) {
+            sendMessage("[SERVER] Usage: /search [from:user] [since:HH:mm] [until:HH:mm] words");
+            return;
+        }
+        MessageJournal journal = server.getJournal();
+        if (journal == null || journal.getIndex() == null) {
+            sendMessage("[SERVER] Search is not enabled on this server.");
+            return;
+        }
+        if (!readingJournal.compareAndSet(false, true)) {
+            sendMessage("[SERVER] Still reading the journal for you, try again in a moment.");
+            return;
+        }
+
+        // Matching records are read back from the segments, so on a journal reader too
+        String inRoom = room;
+        server.readJournal(() -> {
+            try {
+                List<JournalRecord> results;
+                try {
+                    results = journal.search(query, SEARCH_RESULTS);
+                } catch (IOException e) {
+                    sendMessage("[SERVER] Search is not available right now.");
+                    server.log(ServerLog.Level.ERROR, "❌ Search failed: " + e.getMessage());
+                    return;
+                }
+                StringBuilder list = new StringBuilder("🔎 " + results.size() + " result(s) in #" + inRoom + ":");
+                // Oldest first, like the chat itself
+                for (int i = results.size() - 1; i >= 0; i--) {
+                    list.append('\n').append("   ").append(Frame.continuedLines(results.get(i).getText()));
+                }
+                sendMessage(list.toString());
+                server.log("🔎 " + username + " searched #" + inRoom + " for: " + text);
+            } finally {
+                readingJournal.set(false);
+            }
+        });
+    }
+
+    // "<username> <message>": one index lookup instead of scanning every client
+    private void sendDirect(String payload) {
+        int space = payload.indexOf(' ');
+        if (space <= 0) {
+            sendMessage("[SERVER] Usage: @username message");
+            return;
+        }
+        String target = payload.substring(0, space);
+        String message = payload.substring(space + 1);
+
+        ClientConnection recipient = server.getClients().getByUsername(target);
+        if (recipient == null || recipient.closed.get()) {
+            sendMessage("[SERVER] No user named " + target + " is online.");
+            return;
+        }
+        String formatted = "[" + LocalTime.now().withNano(0) + "] 🔒 " + username + " → you: " + message;
+        recipient.send(new Frame(Frame.DIRECT, id, formatted));
+        server.log("🔒 " + username + " sent a direct message to " + recipient.username);
+    }
+
+    private void sendRooms() {
+        StringBuilder list = new StringBuilder("📋 Rooms:");
+        for (String name : server.getRooms().names()) {
+            list.append('\n').append("   • #").append(name);
+        }
+        sendMessage(list.toString());
+    }
+
+    // "allUsers [prefix] [page size] [after:cursor]" lists the room a page at a time,
+    // "allUsers more" pages on. Pages come from the sorted UserIndex, never a scan.
+    protected void sendActiveUsers(String request) {
+        if (request.equalsIgnoreCase("more")) {
+            if (userListCursor == null) {
+                sendMessage("[SERVER] No more users. Usage: allUsers [prefix] [page size]");
+                return;
+            }
+        } else {
+            userListPrefix = "";
+            userListCursor = null;
+            userListLimit = USER_PAGE_SIZE;
+            for (String option : request.split("\\s+")) {
+                if (option.isEmpty()) {
+                    continue;
+                }
+                if (option.regionMatches(true, 0, "after:", 0, 6)) {
+                    userListCursor = option.substring(6).toLowerCase();
+                } else if (option.chars().allMatch(Character::isDigit)) {
+                    try {
+                        userListLimit = Math.max(1, Math.min(USER_PAGE_MAX, Integer.parseInt(option)));
+                    } catch (NumberFormatException e) {
+                        userListLimit = USER_PAGE_MAX;
+                    }
+                } else {
+                    userListPrefix = option;
+                }
+            }
+        }
+
+        if (userListCursor != null && !userListCursor.startsWith(userListPrefix.toLowerCase())) {
+            userListCursor = null;
+            sendMessage("[SERVER] The cursor after:... must start with the prefix. Usage: allUsers [prefix] [page size]");
+            return;
+        }
+
+        UserIndex.Listing listing = server.getUsers().list(room, userListPrefix, userListCursor, userListLimit);
+        send(listing.frame());
+        userListCursor = listing.next();
+        if (userListCursor != null) {
+            sendMessage("[SERVER] Type allUsers more (or allUsers after:" + userListCursor + ") for the next page.");
+        }
+        server.log(ServerLog.Level.DEBUG, "📋 " + username + " requested user list");
+    }
+
+    protected void broadcast(byte type, String message) {
+        // Only the members of this client's room hear it. The frame is encoded at most
+        // once per wire format and every recipient gets a duplicate() view of those bytes
+        Frame frame = new Frame(type, id, message);
+        // Only queued for the journal here, its own thread does the disk I/O
+        server.getHistory().record(room, username, frame);
+        long start = System.nanoTime();
+        int recipients = server.deliver(room, frame, this);
+        ServerMetrics metrics = server.getMetrics();
+        metrics.broadcastTime.observe(System.nanoTime() - start);
+        metrics.broadcasts.increment();
+        metrics.broadcastRecipients.add(recipients);
+
+        // Only queued for the peers here too, each link has its own thread
+        ClusterNode cluster = server.getCluster();
+        if (cluster != null) {
+            cluster.relayBroadcast(room, username, type, message);
+        }
+    }
+
+    // A system notice from the server to this client only
+    public void sendMessage(String message) {
+        send(new Frame(Frame.SYSTEM, 0, message));
+    }
+
+    // Never writes to the socket itself: the encoded frame is queued and the writer picks it up
+    protected void send(Frame frame) {
+        if (closed.get()) {
+            return;
+        }
+        if (!outbound.offer(frame.encode(binary))) {
+            server.log(ServerLog.Level.WARN, "❌ " + username + " is not reading fast enough, disconnecting");
+            disconnect(ServerMetrics.Disconnect.SLOW_CONSUMER);
+            return;
+        }
+        server.getMetrics().messagesOut.increment();
+        onMessageQueued();
+    }
+
+    public void disconnect(ServerMetrics.Disconnect reason) {
+        setDisconnectReason(reason);
+        closeEverything();
+    }
+
+    protected void setDisconnectReason(ServerMetrics.Disconnect reason) {
+        disconnectReason.compareAndSet(null, reason);
+    }
+
+    // Subclasses call this exactly once, from the closeEverything() that actually closed
+    protected void onClosed() {
+        setDisconnectReason(ServerMetrics.Disconnect.EOF);
+        server.getMetrics().disconnected(disconnectReason.get());
+        TimerWheel.Timeout timeout = idleTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    // Lets the writer know the queue has new data
+    protected abstract void onMessageQueued();
+
+    public abstract void closeEverything();
+
+    protected abstract int getRemotePort();
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public int getQueueDepth() {
+        return outbound.size();
+    }
+
+    public long getDroppedMessages() {
+        return outbound.getDroppedCount();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    public boolean isPresenceSubscriber() {
+        return presenceSubscriber;
+    }
+
+    // Binary clients always do; the others are left to TCP keepalive and write errors
+    boolean answersPings() {
+        return binary || textPings;
+    }
+
+    long getLastSeenNanos() {
+        return lastSeenNanos;
+    }
+
+    void setIdleTimeout(TimerWheel.Timeout timeout) {
+        this.idleTimeout = timeout;
+    }
+
+    long getPingSentNanos() {
+        return pingSentNanos;
+    }
+
+    void setPingSentNanos(long nanos) {
+        this.pingSentNanos = nanos;
+    }
+}
@@ -2,134 +2,221 @@ package org.example.server;
 
 import java.io.*;
 import java.net.Socket;
-import java.time.LocalTime;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
-public class ClientHandler extends Thread {
+public class ClientHandler extends ClientConnection implements Runnable {
+
+    // Write coalescing: once traffic is bursty, wait up to the window for more lines
+    // before flushing, and never gather more than maxBytes into one write
+    private static final long BATCH_WINDOW_NANOS =
+            TimeUnit.MICROSECONDS.toNanos(Long.getLong("server.batch.windowMicros", 200));
+    // At least 1 KB: a batch that can hold nothing would never make progress
+    private static final int BATCH_MAX_BYTES = Math.max(1024, Integer.getInteger("server.batch.maxBytes", 16 * 1024));
 
     private Socket socket;
-    private BufferedReader reader;
-    private BufferedWriter writer;
-    private String username;
-    private boolean readOnly = false;
-    private ServerController controller;
+    private InputStream in;
+    private OutputStream out;
+    // Reused for every write: queued buffers are shared and read-only, so they are
+    // copied in here instead of being re-encoded or copied into a fresh array
+    private final byte[] writeBuffer = new byte[BATCH_MAX_BYTES];
+    private int writeCount = 0;
+    private final Executor executor;
+    private volatile Thread writerThread;
+
+    // Only stores the socket: all blocking setup happens in run(), off the accept thread
+    public ClientHandler(Socket socket, Server server, Executor executor) {
+        super(server);
+        this.socket = socket;
+        this.executor = executor;
+    }
 
-    public ClientHandler(Socket socket, ServerController controller) {
+    @Override
+    public void run() {
         try {
-            this.socket = socket;
-            this.controller = controller;
-            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-
-            // Read username (first message from client)
-            this.username = reader.readLine();
-
-            // Check if username is valid
-            if (username == null || username.trim().isEmpty() || username.equals("READ_ONLY")) {
-                readOnly = true;
-                username = "READ_ONLY_" + socket.getPort();
-                sendMessage("[SERVER] You are in READ-ONLY MODE. You cannot send messages.");
-                ServerController.log("👤 Read-only client connected: " + username);
+            // Finds peers that vanished for clients the Heartbeat cannot ping
+            socket.setKeepAlive(true);
+            this.in = new BufferedInputStream(new CountingInputStream(socket.getInputStream()));
+            this.out = socket.getOutputStream();
+
+            // Peek at the first byte: binary clients open with Frame.MAGIC, which can
+            // never start a username line
+            in.mark(1);
+            int first = in.read();
+            if (first == Frame.MAGIC) {
+                binary = true;
+                in.read(); // protocol version, only 1 exists so far
             } else {
-                ServerController.log("👤 User joined: " + username);
+                in.reset();
             }
 
-            // Broadcast join message to all clients
-            broadcast("🟢 " + username + " joined the chat");
+            // Outgoing lines are written by a separate task so a peer that stops
+            // reading only ever blocks its own writer
+            executor.execute(this::writeLoop);
 
+            if (binary) {
+                readFrames();
+            } else {
+                readLines();
+            }
         } catch (IOException e) {
+            setDisconnectReason(ServerMetrics.Disconnect.ERROR);
+            server.log(ServerLog.Level.WARN, "❌ Connection error with " + username + ": " + e.getMessage());
+        } finally {
             closeEverything();
         }
     }
 
-    @Override
-    public void run() {
+    private void readLines() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
         String message;
 
-        try {
-            while ((message = reader.readLine()) != null) {
+        // Read username (first message from client)
+        onUsername(reader.readLine());
 
-                // Handle read-only mode
-                if (readOnly) {
-                    sendMessage("[SERVER] You cannot send messages in READ-ONLY mode.");
-                    continue;
-                }
+        // Stop at once when closed from elsewhere: the reader may still hold buffered lines
+        while (!closed.get() && (message = reader.readLine()) != null) {
+            if (!onMessage(message)) {
+                break;
+            }
+            // Characters, not bytes, but close enough for a limit
+            pause(admit(message.length() + 1));
+        }
+    }
 
-                // Handle disconnect commands
-                if (message.equalsIgnoreCase("bye") || message.equalsIgnoreCase("end")) {
-                    broadcast("🔴 " + username + " left the chat");
-                    ServerController.log("🔴 User disconnected: " + username);
-                    break;
-                }
+    private void readFrames() throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        Frame frame = Frame.read(data);
 
-                // Handle allUsers command
-                if (message.equalsIgnoreCase("allUsers")) {
-                    sendActiveUsers();
-                } else {
-                    // Regular message
-                    String formatted = "[" + LocalTime.now().withNano(0) + "] " + username + ": " + message;
-                    broadcast(formatted);
-                    ServerController.log("💬 " + username + ": " + message);
-                }
+        // First frame is the JOIN with the username
+        onUsername(frame != null && frame.getType() == Frame.JOIN ? frame.getPayload() : null);
+
+        while (!closed.get() && (frame = Frame.read(data)) != null) {
+            if (!onFrame(frame.getType(), frame.getPayload())) {
+                break;
             }
-        } catch (IOException e) {
-            ServerController.log("❌ Connection error with " + username);
-        } finally {
-            closeEverything();
+            pause(admit(4 + Frame.HEADER_LENGTH + frame.getPayload().length()));
+        }
+    }
+
+    // Over its rate limit: not reading for a while fills the socket's receive buffer,
+    // and TCP then slows the client down
+    private void pause(long nanos) {
+        if (nanos > 0 && !closed.get()) {
+            LockSupport.parkNanos(nanos);
         }
     }
 
-    private void sendActiveUsers() {
+    private void writeLoop() {
+        writerThread = Thread.currentThread();
+        boolean bursting = false;
         try {
-            writer.write("📋 Active users:");
-            writer.newLine();
-            for (ClientHandler client : Server.clients) {
-                writer.write("   • " + client.username);
-                writer.newLine();
+            while (!closed.get()) {
+                append(outbound.take());
+                int lines = 1;
+                long deadline = System.nanoTime() + BATCH_WINDOW_NANOS;
+
+                // Take whatever else is already queued. Only linger for more when the last
+                // batch was a burst too, so a lone message at low load goes out right away.
+                while (writeCount < BATCH_MAX_BYTES) {
+                    ByteBuffer next = outbound.poll();
+                    if (next == null && bursting) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining > 0) {
+                            next = outbound.poll(remaining, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                    if (next == null) {
+                        break;
+                    }
+                    append(next);
+                    lines++;
+                }
+
+                flushWrites();
+                bursting = lines > 1;
             }
-            writer.flush();
-            ServerController.log("📋 " + username + " requested user list");
+        } catch (InterruptedException e) {
+            // closeEverything() interrupts us
         } catch (IOException e) {
-            closeEverything();
+            disconnect(ServerMetrics.Disconnect.ERROR);
         }
     }
 
-    private void broadcast(String message) {
-        for (ClientHandler client : Server.clients) {
-            try {
-                if (client != this) {
-                    client.sendMessage(message);
-                }
-            } catch (Exception e) {
-                client.closeEverything();
+    private void append(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (writeCount == writeBuffer.length) {
+                flushWrites();
             }
+            int n = Math.min(buffer.remaining(), writeBuffer.length - writeCount);
+            buffer.get(writeBuffer, writeCount, n);
+            writeCount += n;
         }
     }
 
-    private void sendMessage(String message) {
-        try {
-            writer.write(message);
-            writer.newLine();
-            writer.flush();
-        } catch (IOException e) {
-            closeEverything();
+    private void flushWrites() throws IOException {
+        if (writeCount > 0) {
+            out.write(writeBuffer, 0, writeCount);
+            out.flush();
+            server.getMetrics().bytesOut.add(writeCount);
+            writeCount = 0;
         }
     }
 
+    @Override
+    protected void onMessageQueued() {
+        // writeLoop() is already waiting on the queue
+    }
+
+    @Override
     public void closeEverything() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        onClosed();
         try {
-            Server.removeClient(this);
-            if (controller != null) {
-                controller.updateUserList();
-            }
-            if (reader != null) reader.close();
-            if (writer != null) writer.close();
+            server.removeClient(this);
+            Thread writer = writerThread;
+            if (writer != null) writer.interrupt();
+            if (in != null) in.close();
             if (socket != null && !socket.isClosed()) socket.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            server.log(ServerLog.Level.DEBUG, "Could not close the socket of " + username, e);
         }
+        outbound.clear();
     }
 
-    public String getUsername() {
-        return username;
+    @Override
+    protected int getRemotePort() {
+        return socket.getPort();
+    }
+
+    // Counts what comes off the socket before any buffering or decoding
+    private class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                server.getMetrics().bytesIn.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                server.getMetrics().bytesIn.add(n);
+            }
+            return n;
+        }
     }
-}
\ No newline at end of file
+}
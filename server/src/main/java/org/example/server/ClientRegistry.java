@@ -0,0 +1,71 @@
+package org.example.server;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Who is connected to one Server instance. Backed by ConcurrentHashMaps, so joins and
+// leaves are O(1) without copying anything, and iteration is weakly consistent: a loop
+// over all() never throws and never blocks writers, it just may or may not see a client
+// that joins or leaves mid-loop.
+public class ClientRegistry {
+
+    private final ConcurrentHashMap<Long, ClientConnection> byId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ClientConnection> byUsername = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    public long nextId() {
+        return nextId.getAndIncrement();
+    }
+
+    // Usernames are unique, ignoring case. Returns false if someone already has this one.
+    public boolean reserveUsername(String username, ClientConnection client) {
+        ClientConnection holder = byUsername.putIfAbsent(key(username), client);
+        return holder == null || holder == client;
+    }
+
+    // Gives the name back if this client still holds it
+    public void releaseUsername(String username, ClientConnection client) {
+        if (username != null) {
+            byUsername.remove(key(username), client);
+        }
+    }
+
+    public void add(ClientConnection client) {
+        byId.put(client.getId(), client);
+    }
+
+    // Returns false if the client was not (or no longer) registered
+    public boolean remove(ClientConnection client) {
+        // Conditional removes, so a stale close cannot evict somebody else's entry
+        boolean removed = byId.remove(client.getId(), client);
+        releaseUsername(client.getUsername(), client);
+        return removed;
+    }
+
+    public ClientConnection get(long id) {
+        return byId.get(id);
+    }
+
+    // O(1) lookup used to route direct messages
+    public ClientConnection getByUsername(String username) {
+        return byUsername.get(key(username));
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase();
+    }
+
+    public Collection<ClientConnection> all() {
+        return byId.values();
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public void clear() {
+        byId.clear();
+        byUsername.clear();
+    }
+}
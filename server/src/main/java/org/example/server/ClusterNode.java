@@ -0,0 +1,430 @@
+package org.example.server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// This server's membership in a cluster of chat servers. Every node listens on its
+// cluster port and keeps one PeerLink to each configured peer (a full mesh): what
+// happens on this node is sent to every peer directly, and nothing is forwarded on,
+// so there are no loops. What peers send us arrives on the connections they opened.
+//
+// Broadcasts are delivered to the local members of the room as if sent here, and
+// joins, leaves and room moves build a directory of who is on the other nodes, which
+// allUsers merges with our own clients.
+//
+// Each event carries a sequence number from the node it happened on, plus that node's
+// incarnation (random, per start), so a batch sent again after a reconnect is applied
+// once. Each node has at most one inbound connection here: a second one from a node
+// that is still connected (say, listed as a peer under two addresses) is turned away.
+// A connection silent for longer than a few keepalives counts as gone.
+//
+// Anything a peer sends is trusted (it can speak for any user), so the cluster port
+// listens on bindAddress only (loopback unless configured), accepts connections only
+// from the hosts in server.cluster.peers, and every link proves in its handshake that
+// it knows server.cluster.secret: an HMAC of its node id and incarnation, so the
+// secret itself never goes over the wire.
+public class ClusterNode {
+
+    static final int MAGIC = 0x43484c31; // "CHL1"
+    static final int PROOF_LENGTH = 32; // HMAC-SHA256
+    private static final int PEER_TIMEOUT_MILLIS = (int) (5 * PeerLink.KEEPALIVE_MILLIS);
+
+    public record RemoteUser(String username, String room, String nodeId) {
+    }
+
+    // Highest seq applied from one incarnation of a node
+    private static final class Watermark {
+        long incarnation;
+        long seq = -1;
+    }
+
+    private final Server server;
+    private final String nodeId;
+    private final long incarnation = ThreadLocalRandom.current().nextLong();
+    // Taken to number an event and queue it on every link in one step, so each link's
+    // queue is in seq order; the receiver drops anything at or below the last seq applied
+    private final Object relayLock = new Object();
+    private long nextSeq;
+    private final ServerSocket listener;
+    private final List<PeerLink> links = new ArrayList<>();
+    // nodeId -> username (lower case) -> what that node told us
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, RemoteUser>> directory = new ConcurrentHashMap<>();
+    // nodeId -> the incoming connection whose close takes its users away
+    private final ConcurrentHashMap<String, Socket> inbound = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Watermark> watermarks = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+    private final byte[] secret;
+    // Hosts listed in server.cluster.peers; nobody else may connect
+    private final Set<InetAddress> allowedHosts = new HashSet<>();
+
+    public ClusterNode(Server server, String nodeId, InetAddress bindAddress, int port, Set<InetSocketAddress> peers,
+                       byte[] secret, int queueCapacity, long lingerMicros) throws IOException {
+        this.server = server;
+        this.nodeId = nodeId;
+        this.secret = secret.clone();
+        this.listener = new ServerSocket(port, 50, bindAddress);
+        for (InetSocketAddress peer : peers) {
+            if (peer.getAddress() != null) {
+                allowedHosts.add(peer.getAddress());
+            }
+        }
+
+        Thread acceptor = new Thread(this::acceptLoop, "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (InetSocketAddress peer : peers) {
+            links.add(new PeerLink(this, peer, queueCapacity, lingerMicros));
+        }
+    }
+
+    // Returns null unless server.cluster.port is set, without a secret, or if the port
+    // cannot be bound
+    public static ClusterNode fromConfig(Server server) {
+        int port = Integer.getInteger("server.cluster.port", 0);
+        if (port <= 0) {
+            return null;
+        }
+        String secret = System.getProperty("server.cluster.secret", "");
+        if (secret.isBlank()) {
+            server.log(ServerLog.Level.ERROR, "❌ server.cluster.secret is not set, clustering stays off");
+            return null;
+        }
+        String nodeId = System.getProperty("server.cluster.nodeId", "").trim();
+        if (nodeId.isEmpty()) {
+            nodeId = "node-" + port;
+        }
+        // The same peer listed twice would get every event twice
+        Set<InetSocketAddress> peers = new LinkedHashSet<>();
+        for (String peer : System.getProperty("server.cluster.peers", "").split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            InetSocketAddress address = colon < 0
+                    ? new InetSocketAddress(peer, port)
+                    : new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1)));
+            // Lets every node of a loopback cluster share one peer list
+            if (address.getPort() == port && address.getAddress() != null
+                    && address.getAddress().isLoopbackAddress()) {
+                continue;
+            }
+            peers.add(address);
+        }
+        try {
+            InetAddress bindAddress = InetAddress.getByName(
+                    System.getProperty("server.cluster.bindAddress", "127.0.0.1").trim());
+            ClusterNode cluster = new ClusterNode(server, nodeId, bindAddress, port, peers,
+                    secret.getBytes(StandardCharsets.UTF_8),
+                    Integer.getInteger("server.cluster.queueCapacity", 65536),
+                    Long.getLong("server.cluster.batchMicros", 200));
+            server.log("🌐 Cluster node " + nodeId + " on port " + port + ", " + peers.size() + " peer(s)");
+            return cluster;
+        } catch (IOException e) {
+            server.log(ServerLog.Level.ERROR, "❌ Could not open cluster port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void relayBroadcast(String room, String username, byte frameType, String text) {
+        relay(RelayMessage.BROADCAST, frameType, room, username, text);
+    }
+
+    public void userJoined(String username, String room) {
+        relay(RelayMessage.USER_JOINED, (byte) 0, room, username, "");
+    }
+
+    public void userLeft(String username, String room) {
+        relay(RelayMessage.USER_LEFT, (byte) 0, room, username, "");
+    }
+
+    public void userMoved(String username, String room) {
+        relay(RelayMessage.USER_MOVED, (byte) 0, room, username, "");
+    }
+
+    private void relay(byte kind, byte frameType, String room, String username, String text) {
+        if (links.isEmpty()) {
+            return;
+        }
+        synchronized (relayLock) {
+            // One message object shared by every link; relay() never blocks
+            RelayMessage message = new RelayMessage(kind, nextSeq++, frameType, room, username, text);
+            for (PeerLink link : links) {
+                link.relay(message);
+            }
+        }
+    }
+
+    // Everyone connected here right now, for a link that just (re)connected. The link
+    // starts taking events in the same step, so everything it is sent after the
+    // snapshot has a higher seq and is not mistaken by the peer for a duplicate
+    RelayMessage openLink(PeerLink link) {
+        synchronized (relayLock) {
+            link.markConnected();
+            return new RelayMessage(RelayMessage.SNAPSHOT, nextSeq++, (byte) 0, "", "", listUsers());
+        }
+    }
+
+    private String listUsers() {
+        StringBuilder users = new StringBuilder();
+        for (ClientConnection client : server.getClients().all()) {
+            if (client.getUsername() != null) {
+                users.append(client.getUsername()).append('\t').append(client.getRoom()).append('\n');
+            }
+        }
+        return users.toString();
+    }
+
+    // Users on other nodes in this room, for allUsers
+    public List<RemoteUser> remoteMembers(String room) {
+        List<RemoteUser> members = new ArrayList<>();
+        for (Map<String, RemoteUser> users : directory.values()) {
+            for (RemoteUser user : users.values()) {
+                if (user.room().equals(room)) {
+                    members.add(user);
+                }
+            }
+        }
+        return members;
+    }
+
+    public int getRemoteUserCount() {
+        int count = 0;
+        for (Map<String, RemoteUser> users : directory.values()) {
+            count += users.size();
+        }
+        return count;
+    }
+
+    public int getConnectedPeerCount() {
+        int count = 0;
+        for (PeerLink link : links) {
+            if (link.isConnected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (PeerLink link : links) {
+            dropped += link.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = listener.accept();
+                Thread reader = new Thread(() -> readLoop(socket), "cluster-peer-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    server.log(ServerLog.Level.ERROR, "❌ Cluster accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // One per peer that connected to us: its handshake, then batches until it goes away
+    private void readLoop(Socket socket) {
+        OutboundQueue.neverBlockThisThread();
+        String peer = null;
+        try (socket) {
+            if (!allowedHosts.contains(socket.getInetAddress())) {
+                server.log(ServerLog.Level.WARN, "⚠️ Refused a cluster connection from " + socket.getRemoteSocketAddress()
+                        + ", not in server.cluster.peers");
+                return;
+            }
+            // Nothing is read without a deadline until the peer has proved itself
+            socket.setSoTimeout(PEER_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            if (in.readInt() != MAGIC) {
+                server.log(ServerLog.Level.WARN, "⚠️ Not a cluster peer: " + socket.getRemoteSocketAddress());
+                return;
+            }
+            String claimed = in.readUTF();
+            long peerIncarnation = in.readLong();
+            byte[] proof = new byte[PROOF_LENGTH];
+            in.readFully(proof);
+            if (!MessageDigest.isEqual(proof, proof(claimed, peerIncarnation))) {
+                server.log(ServerLog.Level.WARN, "⚠️ Cluster peer " + socket.getRemoteSocketAddress()
+                        + " does not know server.cluster.secret, refusing it");
+                return;
+            }
+            peer = claimed;
+            if (peer.equals(nodeId)) {
+                server.log(ServerLog.Level.WARN, "⚠️ A cluster peer has our own node id " + nodeId + ", ignoring it");
+                peer = null;
+                return;
+            }
+            if (inbound.putIfAbsent(peer, socket) != null) {
+                server.log(ServerLog.Level.WARN, "⚠️ Cluster peer " + peer + " is already connected, refusing a second link");
+                peer = null;
+                return;
+            }
+            // The read timeout stays: links send a keepalive every second, and one that
+            // stops is half-open and is dropped, so the peer's next connection is let in
+            Watermark watermark = watermarks.computeIfAbsent(peer, id -> new Watermark());
+            server.log("🔗 Cluster peer " + peer + " connected");
+
+            while (running) {
+                int count = in.readInt();
+                if (count == 0) {
+                    continue; // keepalive
+                }
+                server.getMetrics().clusterBatchesIn.increment();
+                for (int i = 0; i < count; i++) {
+                    RelayMessage message = RelayMessage.readFrom(in);
+                    if (isNew(watermark, peerIncarnation, message.seq())) {
+                        apply(peer, message);
+                        server.getMetrics().clusterMessagesIn.increment();
+                    } else {
+                        server.getMetrics().clusterDuplicates.increment();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The peer went away; its link will connect again when it comes back
+        } finally {
+            if (peer != null && inbound.remove(peer, socket)) {
+                Map<String, RemoteUser> gone = directory.remove(peer);
+                if (gone != null && running) {
+                    for (RemoteUser user : gone.values()) {
+                        moved(user, null);
+                    }
+                }
+                server.log("🔌 Cluster peer " + peer + " disconnected");
+            }
+        }
+    }
+
+    // What a link sends to show it knows the secret, tied to who it says it is
+    byte[] proof(String id, long incarnation) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(id.getBytes(StandardCharsets.UTF_8));
+            mac.update(ByteBuffer.allocate(Long.BYTES).putLong(0, incarnation));
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            // Every JDK has HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isNew(Watermark watermark, long incarnation, long seq) {
+        synchronized (watermark) {
+            if (watermark.incarnation != incarnation) {
+                // The peer restarted and counts from zero again
+                watermark.incarnation = incarnation;
+                watermark.seq = -1;
+            }
+            if (seq <= watermark.seq) {
+                return false;
+            }
+            watermark.seq = seq;
+            return true;
+        }
+    }
+
+    private void apply(String peer, RelayMessage message) {
+        ConcurrentHashMap<String, RemoteUser> users = directory.computeIfAbsent(peer, id -> new ConcurrentHashMap<>());
+        switch (message.kind()) {
+            case RelayMessage.BROADCAST -> server.deliverRemote(message.room(), message.username(),
+                    new Frame(message.frameType(), 0, message.text()));
+            case RelayMessage.USER_JOINED, RelayMessage.USER_MOVED -> {
+                RemoteUser user = new RemoteUser(message.username(), message.room(), peer);
+                moved(users.put(message.username().toLowerCase(), user), user);
+            }
+            case RelayMessage.USER_LEFT -> moved(users.remove(message.username().toLowerCase()), null);
+            case RelayMessage.SNAPSHOT -> {
+                ConcurrentHashMap<String, RemoteUser> fresh = new ConcurrentHashMap<>();
+                for (String line : message.text().split("\n")) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        String username = line.substring(0, tab);
+                        fresh.put(username.toLowerCase(), new RemoteUser(username, line.substring(tab + 1), peer));
+                    }
+                }
+                Map<String, RemoteUser> previous = directory.put(peer, fresh);
+                // Only what changed since we last knew the peer's users is announced
+                for (Map.Entry<String, RemoteUser> user : fresh.entrySet()) {
+                    moved(previous.get(user.getKey()), user.getValue());
+                }
+                for (Map.Entry<String, RemoteUser> user : previous.entrySet()) {
+                    if (!fresh.containsKey(user.getKey())) {
+                        moved(user.getValue(), null);
+                    }
+                }
+            }
+            default -> server.log(ServerLog.Level.WARN, "⚠️ Unknown relay message kind " + message.kind() + " from " + peer);
+        }
+    }
+
+    // Tells this node's rooms that a remote user left one room and/or arrived in another
+    private void moved(RemoteUser before, RemoteUser after) {
+        if (before != null && after != null && before.room().equals(after.room())) {
+            return;
+        }
+        if (before != null) {
+            server.memberLeft(before.room(), before.username(), before.nodeId());
+        }
+        if (after != null) {
+            server.memberJoined(after.room(), after.username(), after.nodeId());
+        }
+    }
+
+    public void close() {
+        running = false;
+        for (PeerLink link : links) {
+            link.close();
+        }
+        try {
+            listener.close();
+        } catch (IOException ignored) {
+            // Closing anyway
+        }
+        for (Socket socket : inbound.values()) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+        }
+    }
+
+    public Server getServer() {
+        return server;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getIncarnation() {
+        return incarnation;
+    }
+}
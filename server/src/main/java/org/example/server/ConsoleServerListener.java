@@ -0,0 +1,25 @@
+package org.example.server;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+
+// Used by the headless mode: server events go to stdout, nothing touches JavaFX
+public class ConsoleServerListener implements ServerListener {
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    @Override
+    public void log(String message) {
+        System.out.println("[" + LocalTime.now().format(TIME) + "] " + message);
+    }
+
+    @Override
+    public void userJoined(String username) {
+        // No user list to redraw
+    }
+
+    @Override
+    public void userLeft(String username) {
+        // No user list to redraw
+    }
+}
@@ -0,0 +1,154 @@
+package org.example.server;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// One message of the chat protocol, plus its two wire encodings.
+//
+// Text clients get the payload as a newline-terminated line (the original protocol).
+// Binary clients open the connection with MAGIC + VERSION and from then on both sides
+// exchange frames:
+//
+//     int length | byte type | long senderId | UTF-8 payload
+//
+// where length counts everything after the length field itself. Payloads may contain
+// newlines. The first frame from a binary client is a JOIN carrying its username.
+public final class Frame {
+
+    public static final byte CHAT = 1;
+    public static final byte JOIN = 2;
+    public static final byte LEAVE = 3;
+    public static final byte USER_LIST = 4;
+    public static final byte SYSTEM = 5;
+    // Rooms: payload is the room name for ROOM_JOIN, empty otherwise
+    public static final byte ROOM_JOIN = 6;
+    public static final byte ROOM_LEAVE = 7;
+    public static final byte ROOM_LIST = 8;
+    // Payload is "<username> <message>"
+    public static final byte DIRECT = 9;
+    // Payload is a start time ("14:05", "2024-05-01T14:05") or "more" for the next page
+    public static final byte HISTORY = 10;
+    // Payload is a search query, see SearchQuery
+    public static final byte SEARCH = 11;
+    // Keepalive: whoever gets a PING answers with a PONG (text: "/ping" and "/pong")
+    public static final byte PING = 12;
+    public static final byte PONG = 13;
+    // Presence stream, binary only: the client sends an empty one to subscribe and then
+    // gets lines of "=" (a snapshot of the room follows), "+name" and "-name"
+    public static final byte PRESENCE = 14;
+
+    // A text client's first byte is part of its username, which is never NUL
+    public static final int MAGIC = 0x00;
+    public static final int VERSION = 1;
+
+    public static final int HEADER_LENGTH = 1 + 8;
+    public static final int MAX_PAYLOAD_LENGTH = 64 * 1024;
+
+    private final byte type;
+    private final long senderId;
+    private final String payload;
+
+    // Encoded at most once per format however many recipients there are
+    private volatile ByteBuffer asLine;
+    private volatile ByteBuffer asFrame;
+
+    public Frame(byte type, long senderId, String payload) {
+        this.type = type;
+        this.senderId = senderId;
+        this.payload = payload;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public long getSenderId() {
+        return senderId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    // Returns a private read-only view; the underlying bytes are shared
+    public ByteBuffer encode(boolean binary) {
+        if (binary) {
+            ByteBuffer frame = asFrame;
+            if (frame == null) {
+                asFrame = frame = encodeFrame();
+            }
+            return frame.duplicate();
+        }
+        ByteBuffer line = asLine;
+        if (line == null) {
+            // What a user wrote may hold line breaks (binary clients can send them); a text
+            // client must not take them for lines of their own, "[SERVER] ..." or "/ping"
+            String text = type == CHAT || type == DIRECT ? continuedLines(payload) : payload;
+            asLine = line = ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        }
+        return line.duplicate();
+    }
+
+    // Every line after the first is indented, so it reads as part of the one before
+    public static String continuedLines(String text) {
+        if (text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        return text.replace("\r\n", "\n").replace('\r', '\n').replace("\n", "\n    ");
+    }
+
+    private ByteBuffer encodeFrame() {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + HEADER_LENGTH + bytes.length);
+        buffer.putInt(HEADER_LENGTH + bytes.length);
+        buffer.put(type);
+        buffer.putLong(senderId);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    // Blocking read of one frame. Returns null on a clean end of stream.
+    public static Frame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkLength(length);
+        byte type = in.readByte();
+        long senderId = in.readLong();
+        byte[] bytes = new byte[length - HEADER_LENGTH];
+        in.readFully(bytes);
+        return new Frame(type, senderId, new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    // Non-blocking decode from a buffer in read mode. Returns null and leaves the
+    // position alone if the buffer does not hold a whole frame yet.
+    public static Frame decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        int length = buffer.getInt(buffer.position());
+        checkLength(length);
+        if (buffer.remaining() < 4 + length) {
+            return null;
+        }
+        buffer.getInt();
+        byte type = buffer.get();
+        long senderId = buffer.getLong();
+        byte[] bytes = new byte[length - HEADER_LENGTH];
+        buffer.get(bytes);
+        return new Frame(type, senderId, new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private static void checkLength(int length) throws IOException {
+        if (length < HEADER_LENGTH || length > HEADER_LENGTH + MAX_PAYLOAD_LENGTH) {
+            throw new IOException("Bad frame length: " + length);
+        }
+    }
+}
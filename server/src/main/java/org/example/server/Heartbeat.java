@@ -0,0 +1,100 @@
+package org.example.server;
+
+import java.util.concurrent.TimeUnit;
+
+// Finds connections nobody is on the other end of any more. Every connection notes
+// when it last heard from its client; one TimerWheel holds a single timeout per
+// connection. When it fires and the client has been quiet for intervalMillis it gets
+// a PING, and if nothing at all (a PONG or anything else) arrives within timeoutMillis
+// it is disconnected as IDLE. Clients that are chatting are never pinged, and neither
+// are text clients that have never sent "/ping" or "/pong" themselves: an old client
+// would show the line and never answer, so it is left to TCP keepalive instead.
+//
+// Traffic does not touch the wheel: a read only updates a timestamp, and the timeout
+// that fires early simply schedules itself again for when the quiet period would end.
+public class Heartbeat {
+
+    private static final long TICK_MILLIS = 100;
+    // 512 ticks = 51.2 s per turn, so the default timeouts never need more than one
+    private static final int WHEEL_SIZE = 512;
+
+    // Encoded once for every ping ever sent; text clients see the line "/ping"
+    private static final Frame PING = new Frame(Frame.PING, 0, "/ping");
+
+    private final Server server;
+    private final long intervalNanos;
+    private final long timeoutNanos;
+    private final TimerWheel wheel = new TimerWheel(TICK_MILLIS, WHEEL_SIZE, "idle-reaper");
+
+    public Heartbeat(Server server, long intervalMillis, long timeoutMillis) {
+        this.server = server;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    // Null when server.heartbeat.intervalMillis is 0
+    public static Heartbeat fromConfig(Server server) {
+        long interval = Long.getLong("server.heartbeat.intervalMillis", 30_000);
+        if (interval <= 0) {
+            return null;
+        }
+        return new Heartbeat(server, interval, Long.getLong("server.heartbeat.timeoutMillis", 10_000));
+    }
+
+    // Called once per connection, as soon as it exists
+    public void watch(ClientConnection client) {
+        client.setIdleTimeout(wheel.schedule(() -> check(client), intervalNanos, TimeUnit.NANOSECONDS));
+    }
+
+    // Wheel thread
+    private void check(ClientConnection client) {
+        if (client.isClosed()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long lastSeen = client.getLastSeenNanos();
+        long pingSent = client.getPingSentNanos();
+        long next;
+        if (pingSent != 0 && pingSent - lastSeen > 0) {
+            // Pinged, and nothing since
+            long waited = now - pingSent;
+            if (waited >= timeoutNanos) {
+                reap(client);
+                return;
+            }
+            next = timeoutNanos - waited;
+        } else if (now - lastSeen < intervalNanos) {
+            next = intervalNanos - (now - lastSeen);
+        } else if (client.getUsername() != null && !client.answersPings()) {
+            // Asked again after the next interval, in case it turns out to speak ping/pong
+            next = intervalNanos;
+        } else if (client.getUsername() == null) {
+            // Not pinged before the username: a binary client's first frame must be its JOIN
+            if (now - lastSeen >= intervalNanos + timeoutNanos) {
+                reap(client);
+                return;
+            }
+            next = intervalNanos + timeoutNanos - (now - lastSeen);
+        } else {
+            client.setPingSentNanos(now);
+            client.send(PING);
+            server.getMetrics().pingsSent.increment();
+            next = timeoutNanos;
+        }
+        client.setIdleTimeout(wheel.schedule(() -> check(client), next, TimeUnit.NANOSECONDS));
+    }
+
+    private void reap(ClientConnection client) {
+        server.log(ServerLog.Level.WARN, "⏱️ " + (client.getUsername() != null ? client.getUsername() : "A client")
+                + " stopped answering, disconnecting");
+        client.disconnect(ServerMetrics.Disconnect.IDLE);
+    }
+
+    public int getPendingCount() {
+        return wheel.size();
+    }
+
+    public void stop() {
+        wheel.stop();
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+// One broadcast line as stored in the MessageJournal. On disk:
+//
+//     int length | int crc32 | long offset | long timestamp | byte type
+//     | short roomLength | room | short usernameLength | username | text
+//
+// length counts everything after itself; the CRC covers everything after the CRC.
+public final class JournalRecord {
+
+    static final int LENGTH_AND_CRC = 4 + 4;
+    private static final int FIXED_BODY = 8 + 8 + 1 + 2 + 2;
+
+    private final long offset;
+    private final long timestamp;
+    private final byte type;
+    private final String room;
+    private final String username;
+    private final String text;
+
+    public JournalRecord(long offset, long timestamp, byte type, String room, String username, String text) {
+        this.offset = offset;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.room = room;
+        this.username = username;
+        this.text = text;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    ByteBuffer encode() {
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        byte[] userBytes = username.getBytes(StandardCharsets.UTF_8);
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = FIXED_BODY + roomBytes.length + userBytes.length + textBytes.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_AND_CRC + bodyLength);
+        buffer.putInt(4 + bodyLength);
+        buffer.putInt(0); // CRC, filled in below
+        buffer.putLong(offset);
+        buffer.putLong(timestamp);
+        buffer.put(type);
+        buffer.putShort((short) roomBytes.length);
+        buffer.put(roomBytes);
+        buffer.putShort((short) userBytes.length);
+        buffer.put(userBytes);
+        buffer.put(textBytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), LENGTH_AND_CRC, bodyLength);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    // Decodes the record at the buffer's position and moves past it. Returns null, with
+    // the position unchanged, for a torn or corrupt record (e.g. after a crash).
+    static JournalRecord decode(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < LENGTH_AND_CRC) {
+            return null;
+        }
+        int length = buffer.getInt(start);
+        if (length < 4 + FIXED_BODY || buffer.remaining() < 4 + length) {
+            return null;
+        }
+        int bodyLength = length - 4;
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + LENGTH_AND_CRC).limit(start + LENGTH_AND_CRC + bodyLength);
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+            return null;
+        }
+
+        buffer.position(start + LENGTH_AND_CRC);
+        long offset = buffer.getLong();
+        long timestamp = buffer.getLong();
+        byte type = buffer.get();
+        String room = readString(buffer, buffer.getShort() & 0xFFFF);
+        String username = readString(buffer, buffer.getShort() & 0xFFFF);
+        int textLength = start + LENGTH_AND_CRC + bodyLength - buffer.position();
+        if (textLength < 0) {
+            buffer.position(start);
+            return null;
+        }
+        String text = readString(buffer, textLength);
+        return new JournalRecord(offset, timestamp, type, room, username, text);
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
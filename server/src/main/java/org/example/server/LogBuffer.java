@@ -0,0 +1,74 @@
+package org.example.server;
+
+import javafx.collections.ObservableListBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+// Fixed-capacity ring of log lines that a ListView can show directly. Once full,
+// every append drops the oldest lines, so memory stays flat however long the server
+// runs, and the ListView only ever builds cells for the rows on screen.
+// Must only be touched from the FX thread.
+public class LogBuffer extends ObservableListBase<String> {
+
+    private final String[] ring;
+    private int head = 0;
+    private int size = 0;
+
+    public LogBuffer(int capacity) {
+        this.ring = new String[Math.max(1, capacity)];
+    }
+
+    @Override
+    public String get(int index) {
+        Objects.checkIndex(index, size);
+        return ring[(head + index) % ring.length];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Adds a whole batch as a single change, so the ListView updates once per batch
+    public void append(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        // Of a batch bigger than the ring only the newest lines can survive anyway
+        int skip = Math.max(0, lines.size() - ring.length);
+        int overflow = Math.max(0, size + lines.size() - skip - ring.length);
+
+        beginChange();
+        if (overflow > 0) {
+            nextRemove(0, new ArrayList<>(subList(0, overflow)));
+            for (int i = 0; i < overflow; i++) {
+                ring[(head + i) % ring.length] = null;
+            }
+            head = (head + overflow) % ring.length;
+            size -= overflow;
+        }
+        int from = size;
+        for (int i = skip; i < lines.size(); i++) {
+            ring[(head + size) % ring.length] = lines.get(i);
+            size++;
+        }
+        nextAdd(from, size);
+        endChange();
+    }
+
+    @Override
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        beginChange();
+        nextRemove(0, new ArrayList<>(this));
+        Arrays.fill(ring, null);
+        head = 0;
+        size = 0;
+        endChange();
+    }
+}
@@ -0,0 +1,143 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// What has been said, for people who were not there. The last few chat lines of every
+// room stay in a small ring in memory, as the Frame that was broadcast, so replaying
+// them to a newcomer costs no encoding at all. Anything older is read back from the
+// MessageJournal, one page at a time.
+public class MessageHistory {
+
+    // One chat line as it went out
+    public record Entry(long offset, long timestamp, Frame frame) {
+    }
+
+    // A page of history plus where the next page starts (-1 when there is none)
+    public record Page(List<Frame> frames, long nextOffset) {
+    }
+
+    private final MessageJournal journal;
+    private final int capacity;
+    private final ConcurrentHashMap<String, Ring> rooms = new ConcurrentHashMap<>();
+    // Offsets when there is no journal to hand them out
+    private final AtomicLong sequence = new AtomicLong();
+
+    public MessageHistory(MessageJournal journal, int capacity) {
+        this.journal = journal;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    // Settings come from config.properties via ServerLauncher
+    public static MessageHistory fromConfig(MessageJournal journal) {
+        return new MessageHistory(journal, Integer.getInteger("server.history.size", 50));
+    }
+
+    // Called for every broadcast. Everything goes to the journal, chat lines also to the ring.
+    public void record(String room, String username, Frame frame) {
+        if (frame.getType() != Frame.CHAT) {
+            append(room, username, frame, System.currentTimeMillis());
+            return;
+        }
+        // Offset and ring slot under the room's lock: since() relies on the ring being in
+        // offset order, which two lines racing between append and add would break
+        Ring ring = rooms.computeIfAbsent(room, name -> new Ring(capacity));
+        synchronized (ring) {
+            long timestamp = System.currentTimeMillis();
+            ring.add(new Entry(append(room, username, frame, timestamp), timestamp, frame));
+        }
+    }
+
+    private long append(String room, String username, Frame frame, long timestamp) {
+        return journal != null
+                ? journal.append(timestamp, frame.getType(), room, username, frame.getPayload())
+                : sequence.getAndIncrement();
+    }
+
+    // The last chat lines of a room, oldest first
+    public List<Frame> recent(String room) {
+        Ring ring = rooms.get(room);
+        if (ring == null) {
+            return List.of();
+        }
+        List<Frame> frames = new ArrayList<>();
+        for (Entry entry : ring.snapshot()) {
+            frames.add(entry.frame());
+        }
+        return frames;
+    }
+
+    // Chat lines of a room sent at or after sinceMillis, starting at fromOffset. Served
+    // from the ring when it reaches back far enough, otherwise from the journal.
+    public Page since(String room, long sinceMillis, long fromOffset, int pageSize) throws IOException {
+        Ring ring = rooms.get(room);
+        List<Entry> cached = ring != null ? ring.snapshot() : List.of();
+        if (!cached.isEmpty()) {
+            // The ring holds every line of the room after its oldest entry
+            Entry oldest = cached.get(0);
+            if (oldest.timestamp() <= sinceMillis || oldest.offset() <= fromOffset || journal == null) {
+                return fromRing(cached, sinceMillis, fromOffset, pageSize);
+            }
+        }
+        if (journal == null) {
+            return new Page(List.of(), -1);
+        }
+
+        // One extra record tells us whether there is another page
+        List<JournalRecord> records = journal.read(fromOffset, sinceMillis,
+                record -> record.getType() == Frame.CHAT && record.getRoom().equals(room), pageSize + 1);
+        List<Frame> frames = new ArrayList<>();
+        for (int i = 0; i < Math.min(pageSize, records.size()); i++) {
+            frames.add(new Frame(Frame.CHAT, 0, records.get(i).getText()));
+        }
+        long next = records.size() > pageSize ? records.get(pageSize).getOffset() : -1;
+        return new Page(frames, next);
+    }
+
+    private static Page fromRing(List<Entry> cached, long sinceMillis, long fromOffset, int pageSize) {
+        List<Frame> frames = new ArrayList<>();
+        for (Entry entry : cached) {
+            if (entry.offset() < fromOffset || entry.timestamp() < sinceMillis) {
+                continue;
+            }
+            if (frames.size() == pageSize) {
+                return new Page(frames, entry.offset());
+            }
+            frames.add(entry.frame());
+        }
+        return new Page(frames, -1);
+    }
+
+    // Fixed-size ring; the newest line overwrites the oldest
+    private static final class Ring {
+
+        private final Entry[] entries;
+        private int next;
+        private int size;
+
+        Ring(int capacity) {
+            entries = new Entry[capacity];
+        }
+
+        synchronized void add(Entry entry) {
+            entries[next] = entry;
+            next = (next + 1) % entries.length;
+            if (size < entries.length) {
+                size++;
+            }
+        }
+
+        // Oldest first
+        synchronized List<Entry> snapshot() {
+            List<Entry> copy = new ArrayList<>(size);
+            int first = (next - size + entries.length) % entries.length;
+            for (int i = 0; i < size; i++) {
+                copy.add(entries[(first + i) % entries.length]);
+            }
+            return copy;
+        }
+    }
+}
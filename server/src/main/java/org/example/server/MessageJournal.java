@@ -0,0 +1,439 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+// Append-only log of every broadcast line, kept on disk in segment files named after
+// the offset of their first record (00000000000000000000.log, ...). A new segment is
+// started once the current one reaches segmentBytes.
+//
+// broadcast() only enqueues; one background thread drains whatever has piled up and
+// writes it with a single gathering write (group commit), then fsyncs according to the
+// policy. On startup the last segment is scanned and anything after the last intact
+// record (a write torn by a crash) is cut off, so the offsets carry on where they left.
+// Indexing what earlier runs wrote happens on a thread of its own, so the writer takes
+// new lines from the first moment on.
+public class MessageJournal {
+
+    // A record the writer committed while the startup scan was still indexing
+    private record Unindexed(JournalRecord record, long segmentBase, int position) {
+    }
+
+    public enum FsyncPolicy {
+        ALWAYS,    // force after every group commit: nothing acknowledged is ever lost
+        INTERVAL,  // force at most every fsyncIntervalMillis
+        NEVER      // leave it to the OS (still forced on roll and on shutdown)
+    }
+
+    private static final String SUFFIX = ".log";
+    private static final int MAX_BATCH = 256;
+    private static final int MAX_SEARCH_RESULTS = 1000;
+    // The record stores it behind a 16-bit length
+    private static final int MAX_USERNAME_LENGTH = 256;
+
+    private final Server server;
+    private final Path dir;
+    private final long segmentBytes;
+    private final FsyncPolicy fsync;
+    private final long fsyncIntervalMillis;
+    private final LinkedBlockingQueue<JournalRecord> pending;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    // Null when server.search.enabled=false
+    private final SearchIndex index;
+    // What the writer committed during the startup scan, indexed after it so the index
+    // still gets offsets in order; null once the scan is done. Guarded by indexLock.
+    private List<Unindexed> indexBacklog = new ArrayList<>();
+    private final Object indexLock = new Object();
+    private volatile boolean running = true;
+
+    // Only touched by the writer thread once it has started
+    private FileChannel segment;
+    private long segmentBase;
+    private long segmentSize;
+    private long lastSync = System.nanoTime();
+    private boolean dirty;
+    // Guarded by pending
+    private long nextOffset;
+
+    public MessageJournal(Server server, Path dir, long segmentBytes, FsyncPolicy fsync,
+                          long fsyncIntervalMillis, int queueCapacity, SearchIndex index) throws IOException {
+        this.server = server;
+        this.dir = dir;
+        // Positions inside a segment are ints in the search index
+        this.segmentBytes = Math.min(segmentBytes, Integer.MAX_VALUE);
+        this.fsync = fsync;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.pending = new LinkedBlockingQueue<>(Math.max(1, queueCapacity));
+        this.index = index;
+
+        Files.createDirectories(dir);
+        recover();
+
+        if (index != null) {
+            // Everything below this offset was written by earlier runs
+            long scanEnd = nextOffset;
+            Thread indexer = new Thread(() -> buildIndex(scanEnd), "journal-indexer");
+            indexer.setDaemon(true);
+            indexer.start();
+        }
+        writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Settings come from config.properties via ServerLauncher. Returns null if the
+    // journal is switched off or its directory cannot be opened.
+    public static MessageJournal fromConfig(Server server) {
+        if (!Boolean.parseBoolean(System.getProperty("server.journal.enabled", "true"))) {
+            return null;
+        }
+        Path dir = Paths.get(System.getProperty("server.journal.dir", "journal"));
+        long segmentBytes = Long.getLong("server.journal.segmentBytes", 64L * 1024 * 1024);
+        FsyncPolicy fsync = FsyncPolicy.valueOf(
+                System.getProperty("server.journal.fsync", "INTERVAL").trim().toUpperCase());
+        long interval = Long.getLong("server.journal.fsyncIntervalMillis", 1000);
+        int capacity = Integer.getInteger("server.journal.queueCapacity", 65536);
+        SearchIndex index = Boolean.parseBoolean(System.getProperty("server.search.enabled", "true"))
+                ? new SearchIndex()
+                : null;
+        try {
+            return new MessageJournal(server, dir, segmentBytes, fsync, interval, capacity, index);
+        } catch (IOException e) {
+            server.log(ServerLog.Level.ERROR, "❌ Could not open the message journal in " + dir.toAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Called from broadcast(): never touches the disk and never blocks. Returns the
+    // offset the line is stored under (also when it had to be dropped, leaving a gap).
+    public long append(long timestamp, byte type, String room, String username, String text) {
+        if (username.length() > MAX_USERNAME_LENGTH) {
+            username = username.substring(0, MAX_USERNAME_LENGTH);
+        }
+        // Handing out the offset and queueing together keeps the queue in offset order
+        synchronized (pending) {
+            long offset = nextOffset++;
+            if (!running || !pending.offer(new JournalRecord(offset, timestamp, type, room, username, text))) {
+                dropped.increment();
+            }
+            return offset;
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> segments = listSegments();
+        if (segments.isEmpty()) {
+            nextOffset = 0;
+            openSegment(0);
+            return;
+        }
+
+        Path last = segments.get(segments.size() - 1);
+        long baseOffset = baseOffset(last);
+        nextOffset = baseOffset;
+        long validEnd = 0;
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > 0) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                JournalRecord record;
+                while ((record = JournalRecord.decode(mapped)) != null) {
+                    nextOffset = record.getOffset() + 1;
+                }
+                validEnd = mapped.position();
+            }
+            if (validEnd < size) {
+                server.log(ServerLog.Level.WARN, "⚠️ Journal: dropping " + (size - validEnd) + " torn byte(s) at the end of " + last.getFileName());
+            }
+        }
+
+        segment = FileChannel.open(last, StandardOpenOption.WRITE);
+        segmentBase = baseOffset;
+        segment.truncate(validEnd);
+        segment.position(validEnd);
+        segmentSize = validEnd;
+        server.log("📒 Journal recovered: " + segments.size() + " segment(s), next offset " + nextOffset);
+    }
+
+    private void writeLoop() {
+        List<JournalRecord> batch = new ArrayList<>(MAX_BATCH);
+        ByteBuffer[] buffers = new ByteBuffer[MAX_BATCH];
+        while (running || !pending.isEmpty()) {
+            try {
+                JournalRecord first = pending.poll(Math.max(1, fsyncIntervalMillis), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch, MAX_BATCH - 1);
+                    writeBatch(batch, buffers);
+                    batch.clear();
+                }
+                maybeSync();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                server.log(ServerLog.Level.ERROR, "❌ Journal write failed, journal disabled: " + e.getMessage());
+                running = false;
+                pending.clear();
+            }
+        }
+        closeSegment();
+    }
+
+    private void writeBatch(List<JournalRecord> batch, ByteBuffer[] buffers) throws IOException {
+        long[] bases = new long[batch.size()];
+        int[] positions = new int[batch.size()];
+        int count = 0;
+        long batchBytes = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            JournalRecord record = batch.get(i);
+            ByteBuffer encoded = record.encode();
+            if (segmentSize + batchBytes + encoded.remaining() > segmentBytes && segmentSize + batchBytes > 0) {
+                // This record would overflow the segment: finish the current one first
+                writeFully(buffers, count);
+                segmentSize += batchBytes;
+                count = 0;
+                batchBytes = 0;
+                rollSegment(record.getOffset());
+            }
+            bases[i] = segmentBase;
+            positions[i] = (int) (segmentSize + batchBytes);
+            buffers[count++] = encoded;
+            batchBytes += encoded.remaining();
+        }
+        writeFully(buffers, count);
+        segmentSize += batchBytes;
+        dirty = true;
+        if (fsync == FsyncPolicy.ALWAYS) {
+            sync();
+        }
+
+        // Only indexed once the bytes are in the file, so every hit can be read back
+        if (index != null) {
+            synchronized (indexLock) {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (indexBacklog != null) {
+                        indexBacklog.add(new Unindexed(batch.get(i), bases[i], positions[i]));
+                    } else {
+                        index.add(batch.get(i), bases[i], positions[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    // Indexes what earlier runs left on disk (offsets below end), then hands the index
+    // over to the writer together with whatever it committed in the meantime
+    private void buildIndex(long end) {
+        long start = System.nanoTime();
+        boolean complete = false;
+        try {
+            for (Path path : listSegments()) {
+                long base = baseOffset(path);
+                if (base >= end) {
+                    break;
+                }
+                MappedByteBuffer mapped = map(path);
+                int position = mapped.position();
+                JournalRecord record;
+                while ((record = JournalRecord.decode(mapped)) != null && record.getOffset() < end) {
+                    index.add(record, base, position);
+                    position = mapped.position();
+                }
+            }
+            complete = true;
+        } catch (IOException e) {
+            server.log(ServerLog.Level.ERROR, "❌ Could not index the journal: " + e.getMessage());
+        }
+        synchronized (indexLock) {
+            for (Unindexed written : indexBacklog) {
+                index.add(written.record(), written.segmentBase(), written.position());
+            }
+            indexBacklog = null;
+        }
+        if (complete) {
+            server.log("🔎 Search index ready: " + index.size() + " journal record(s) in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }
+    }
+
+    private void writeFully(ByteBuffer[] buffers, int count) throws IOException {
+        int first = 0;
+        while (first < count) {
+            segment.write(buffers, first, count - first);
+            while (first < count && !buffers[first].hasRemaining()) {
+                buffers[first++] = null;
+            }
+        }
+    }
+
+    private void maybeSync() throws IOException {
+        if (dirty && fsync == FsyncPolicy.INTERVAL
+                && System.nanoTime() - lastSync >= TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis)) {
+            sync();
+        }
+    }
+
+    private void sync() throws IOException {
+        segment.force(false);
+        lastSync = System.nanoTime();
+        dirty = false;
+    }
+
+    private void rollSegment(long baseOffset) throws IOException {
+        segment.force(false);
+        segment.close();
+        openSegment(baseOffset);
+    }
+
+    private void openSegment(long baseOffset) throws IOException {
+        Path path = segmentPath(baseOffset);
+        segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentBase = baseOffset;
+        segmentSize = segment.size();
+        dirty = false;
+    }
+
+    private void closeSegment() {
+        try {
+            if (segment != null && segment.isOpen()) {
+                segment.force(false);
+                segment.close();
+            }
+        } catch (IOException e) {
+            server.log(ServerLog.Level.ERROR, "❌ Could not close the journal: " + e.getMessage());
+        }
+    }
+
+    // Reads up to limit records with offset >= fromOffset and timestamp >= sinceMillis
+    // that pass the filter, oldest first. Segments are memory-mapped and decoded one
+    // record at a time, so only the matches end up on the heap. Whole segments that
+    // end before fromOffset or sinceMillis are skipped without being read.
+    public List<JournalRecord> read(long fromOffset, long sinceMillis, Predicate<JournalRecord> filter, int limit)
+            throws IOException {
+        List<Path> segments = listSegments();
+        // Each bound rules out the segments before the last one it could start in; the
+        // later of the two is where reading begins
+        int byOffset = 0;
+        for (int i = segments.size() - 1; i > 0; i--) {
+            if (baseOffset(segments.get(i)) <= fromOffset) {
+                byOffset = i;
+                break;
+            }
+        }
+        int byTime = 0;
+        for (int i = segments.size() - 1; i > byOffset; i--) {
+            if (firstTimestamp(segments.get(i)) <= sinceMillis) {
+                byTime = i;
+                break;
+            }
+        }
+        int start = Math.max(byOffset, byTime);
+
+        List<JournalRecord> matches = new ArrayList<>();
+        for (int i = start; i < segments.size() && matches.size() < limit; i++) {
+            MappedByteBuffer mapped = map(segments.get(i));
+            JournalRecord record;
+            while (matches.size() < limit && (record = JournalRecord.decode(mapped)) != null) {
+                if (record.getOffset() >= fromOffset && record.getTimestamp() >= sinceMillis && filter.test(record)) {
+                    matches.add(record);
+                }
+            }
+        }
+        return matches;
+    }
+
+    // Chat lines matching the query, newest first. Empty when search is switched off.
+    public List<JournalRecord> search(SearchQuery query, int limit) throws IOException {
+        if (index == null) {
+            return List.of();
+        }
+        List<JournalRecord> records = new ArrayList<>();
+        MappedByteBuffer mapped = null;
+        long mappedBase = -1;
+        for (SearchIndex.Hit hit : index.find(query, Math.min(limit, MAX_SEARCH_RESULTS))) {
+            if (mapped == null || hit.segmentBase() != mappedBase) {
+                mapped = map(segmentPath(hit.segmentBase()));
+                mappedBase = hit.segmentBase();
+            }
+            mapped.position(hit.position());
+            JournalRecord record = JournalRecord.decode(mapped);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    public SearchIndex getIndex() {
+        return index;
+    }
+
+    private Path segmentPath(long baseOffset) {
+        return dir.resolve(String.format("%020d%s", baseOffset, SUFFIX));
+    }
+
+    private long firstTimestamp(Path segment) throws IOException {
+        JournalRecord first = JournalRecord.decode(map(segment));
+        return first != null ? first.getTimestamp() : Long.MAX_VALUE;
+    }
+
+    // The mapping stays valid after the channel is closed. A record the writer is
+    // still in the middle of fails its CRC and simply ends the scan.
+    private static MappedByteBuffer map(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long baseOffset(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    // Lets the writer finish what is queued, then flushes and closes the segment
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getNextOffset() {
+        synchronized (pending) {
+            return nextOffset;
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+}
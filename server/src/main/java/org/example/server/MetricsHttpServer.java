@@ -0,0 +1,59 @@
+package org.example.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Serves GET /metrics in the Prometheus text format. Bound to the loopback address
+// only, so scraping needs a local agent (or an SSH tunnel), never an open port.
+public class MetricsHttpServer {
+
+    private final HttpServer http;
+
+    public MetricsHttpServer(int port, MetricsRegistry registry) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> respond(exchange, registry));
+        // The JDK's default executor: one thread, plenty for a scraper every few seconds
+        http.start();
+    }
+
+    // Started when server.metrics.port is set; null if it is unset or the port is taken
+    public static MetricsHttpServer fromConfig(Server server) {
+        int port = Integer.getInteger("server.metrics.port", 0);
+        if (port <= 0) {
+            return null;
+        }
+        try {
+            MetricsHttpServer metrics = new MetricsHttpServer(port, server.getMetrics().getRegistry());
+            server.log("📈 Metrics at http://127.0.0.1:" + port + "/metrics");
+            return metrics;
+        } catch (IOException e) {
+            server.log(ServerLog.Level.ERROR, "❌ Could not serve metrics on port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, MetricsRegistry registry) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = registry.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    public void stop() {
+        http.stop(0);
+    }
+}
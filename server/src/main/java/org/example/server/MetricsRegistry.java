@@ -0,0 +1,149 @@
+package org.example.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Counters, gauges and histograms, written out in the Prometheus text format.
+//
+// Recording is a LongAdder increment: each thread lands on its own cell under
+// contention, so connection threads never wait on each other to count something.
+// Metrics are registered once at startup; reading them sums the cells.
+public class MetricsRegistry {
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    // Durations in nanoseconds, exported in seconds like Prometheus expects
+    public static final class Histogram {
+        private final long[] bounds;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        Histogram(long[] boundsNanos) {
+            this.bounds = boundsNanos;
+            this.buckets = new LongAdder[boundsNanos.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observe(long nanos) {
+            int i = 0;
+            while (i < bounds.length && nanos > bounds[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            count.increment();
+            sum.add(nanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        // Upper bound of the bucket holding the given quantile (0-1), in nanoseconds;
+        // Long.MAX_VALUE if it is beyond the last bound
+        public long quantile(double quantile) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * quantile));
+            long seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) {
+                    return bounds[i];
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private record Metric(String name, String labels, String help, String type, Object value) {
+    }
+
+    private final List<Metric> metrics = new ArrayList<>();
+
+    public synchronized Counter counter(String name, String help) {
+        return counter(name, "", help);
+    }
+
+    // labels in Prometheus syntax without the braces, e.g. reason="leave"
+    public synchronized Counter counter(String name, String labels, String help) {
+        Counter counter = new Counter();
+        metrics.add(new Metric(name, labels, help, "counter", counter));
+        return counter;
+    }
+
+    public synchronized void gauge(String name, String help, LongSupplier value) {
+        metrics.add(new Metric(name, "", help, "gauge", value));
+    }
+
+    public synchronized Histogram histogram(String name, String help, long... boundsNanos) {
+        Histogram histogram = new Histogram(boundsNanos);
+        metrics.add(new Metric(name, "", help, "histogram", histogram));
+        return histogram;
+    }
+
+    // https://prometheus.io/docs/instrumenting/exposition_formats/
+    public synchronized String toPrometheusText() {
+        StringBuilder out = new StringBuilder();
+        String lastName = null;
+        for (Metric metric : metrics) {
+            if (!metric.name().equals(lastName)) {
+                out.append("# HELP ").append(metric.name()).append(' ').append(metric.help()).append('\n');
+                out.append("# TYPE ").append(metric.name()).append(' ').append(metric.type()).append('\n');
+                lastName = metric.name();
+            }
+            switch (metric.value()) {
+                case Counter counter -> sample(out, metric.name(), metric.labels(), Long.toString(counter.get()));
+                case LongSupplier gauge -> sample(out, metric.name(), metric.labels(), Long.toString(gauge.getAsLong()));
+                case Histogram histogram -> writeHistogram(out, metric, histogram);
+                default -> throw new IllegalStateException("Unknown metric " + metric.name());
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeHistogram(StringBuilder out, Metric metric, Histogram histogram) {
+        long cumulative = 0;
+        for (int i = 0; i < histogram.bounds.length; i++) {
+            cumulative += histogram.buckets[i].sum();
+            sample(out, metric.name() + "_bucket", "le=\"" + seconds(histogram.bounds[i]) + "\"", Long.toString(cumulative));
+        }
+        cumulative += histogram.buckets[histogram.bounds.length].sum();
+        sample(out, metric.name() + "_bucket", "le=\"+Inf\"", Long.toString(cumulative));
+        sample(out, metric.name() + "_sum", "", seconds(histogram.sum.sum()));
+        sample(out, metric.name() + "_count", "", Long.toString(histogram.count.sum()));
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9).replaceAll("0+$", "").replaceAll("\\.$", ".0");
+    }
+}
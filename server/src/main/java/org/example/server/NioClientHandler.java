@@ -0,0 +1,272 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Connection served by an NioEventLoop. Reads and writes only ever happen on the
+// loop thread; sendMessage() may be called from anywhere. Speaks both the text and
+// the binary protocol (see Frame).
+public class NioClientHandler extends ClientConnection {
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_BUFFER_SIZE = 4 + Frame.HEADER_LENGTH + Frame.MAX_PAYLOAD_LENGTH;
+    private static final int MAX_GATHER = 64;
+    // At least 1 KB: a batch that can hold nothing would never make progress
+    private static final int BATCH_MAX_BYTES = Math.max(1024, Integer.getInteger("server.batch.maxBytes", 16 * 1024));
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    // Lines taken off the queue but not completely written yet (loop thread only)
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_GATHER];
+    private int batchCount = 0;
+    private SelectionKey key;
+    private boolean negotiated = false;
+    private boolean joined = false;
+    // Rate limited: not reading until the loop calls resumeReading()
+    private boolean paused = false;
+
+    public NioClientHandler(SocketChannel channel, NioEventLoop loop, Server server) {
+        super(server);
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    // Loop thread: pull whatever is available and hand every complete line or frame to the protocol
+    void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                closeEverything();
+                return;
+            }
+            server.getMetrics().bytesIn.add(read);
+            processBuffered();
+        } catch (IOException e) {
+            server.log(ServerLog.Level.WARN, "❌ Connection error with " + username + ": " + e.getMessage());
+            disconnect(ServerMetrics.Disconnect.ERROR);
+        }
+    }
+
+    // Loop thread, once a rate limit pause is over: finish what is already buffered,
+    // then start reading from the socket again
+    void resumeReading() {
+        paused = false;
+        if (closed.get() || key == null || !key.isValid()) {
+            return;
+        }
+        try {
+            processBuffered();
+            if (!paused && !closed.get() && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            disconnect(ServerMetrics.Disconnect.ERROR);
+        }
+    }
+
+    // Hands every complete line or frame in readBuffer to the protocol, until they run
+    // out or the rate limit says to stop
+    private void processBuffered() throws IOException {
+        readBuffer.flip();
+
+        // Binary clients open with Frame.MAGIC + version; anything else is a text client
+        if (!negotiated && readBuffer.hasRemaining()) {
+            if (readBuffer.get(readBuffer.position()) == Frame.MAGIC) {
+                if (readBuffer.remaining() < 2) {
+                    readBuffer.compact();
+                    return;
+                }
+                readBuffer.position(readBuffer.position() + 2);
+                binary = true;
+            }
+            negotiated = true;
+        }
+
+        boolean keepOpen = binary ? drainFrames() : drainLines();
+        if (!keepOpen || closed.get()) {
+            closeEverything();
+            return;
+        }
+        readBuffer.compact();
+
+        // A partial line or frame filled the whole buffer: grow it, up to the limit
+        // (a paused reader has simply not got to the rest yet)
+        if (!paused && !readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= MAX_BUFFER_SIZE) {
+                server.log(ServerLog.Level.WARN, "❌ Message too long from " + username + ", disconnecting");
+                disconnect(ServerMetrics.Disconnect.MESSAGE_TOO_LONG);
+                return;
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_BUFFER_SIZE));
+            readBuffer.flip();
+            bigger.put(readBuffer);
+            readBuffer = bigger;
+        }
+    }
+
+    // Leaves the position at the start of the first incomplete line
+    private boolean drainLines() {
+        int lineStart = readBuffer.position();
+        for (int i = lineStart; i < readBuffer.limit(); i++) {
+            if (readBuffer.get(i) == '\n') {
+                String line = decodeLine(lineStart, i);
+                int length = i + 1 - lineStart;
+                lineStart = i + 1;
+                if (!onLine(line) || closed.get()) {
+                    return false;
+                }
+                if (pauseFor(admit(length))) {
+                    break;
+                }
+            }
+        }
+        readBuffer.position(lineStart);
+        return true;
+    }
+
+    private boolean drainFrames() throws IOException {
+        Frame frame;
+        int frameStart = readBuffer.position();
+        while ((frame = Frame.decode(readBuffer)) != null) {
+            if (!joined) {
+                // First frame is the JOIN with the username
+                joined = true;
+                onUsername(frame.getType() == Frame.JOIN ? frame.getPayload() : null);
+            } else if (!onFrame(frame.getType(), frame.getPayload())) {
+                return false;
+            }
+            if (closed.get()) {
+                return false;
+            }
+            int length = readBuffer.position() - frameStart;
+            frameStart = readBuffer.position();
+            if (pauseFor(admit(length))) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    // Over its rate limit: stop selecting for reads until the loop resumes us, so the
+    // socket's receive buffer fills and TCP slows the client down
+    private boolean pauseFor(long nanos) {
+        if (nanos <= 0 || closed.get()) {
+            return false;
+        }
+        paused = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        loop.resumeLater(this, nanos);
+        return true;
+    }
+
+    private String decodeLine(int start, int end) {
+        // Accept both \n and \r\n line endings, like BufferedReader.readLine()
+        if (end > start && readBuffer.get(end - 1) == '\r') {
+            end--;
+        }
+        byte[] bytes = new byte[end - start];
+        readBuffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean onLine(String line) {
+        if (!joined) {
+            joined = true;
+            onUsername(line);
+            return true;
+        }
+        return onMessage(line);
+    }
+
+    @Override
+    protected void onMessageQueued() {
+        if (writeScheduled.compareAndSet(false, true)) {
+            loop.requestWrite(this);
+        }
+    }
+
+    // Loop thread: write as much as the socket takes, then wait for OP_WRITE for the rest.
+    // Everything queued since the last pass goes out in one gathering write (writev),
+    // so batches grow on their own when the loop is busy and stay at one line when idle.
+    void flushOutbound() {
+        writeScheduled.set(false);
+        if (closed.get() || key == null || !key.isValid()) {
+            return;
+        }
+        try {
+            while (true) {
+                fillBatch();
+                if (batchCount == 0) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    return;
+                }
+                server.getMetrics().bytesOut.add(channel.write(batch, 0, batchCount));
+                dropWrittenBuffers();
+                if (batchCount > 0) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            disconnect(ServerMetrics.Disconnect.ERROR);
+        }
+    }
+
+    private void fillBatch() {
+        long bytes = 0;
+        for (int i = 0; i < batchCount; i++) {
+            bytes += batch[i].remaining();
+        }
+        while (batchCount < batch.length && bytes < BATCH_MAX_BYTES) {
+            ByteBuffer next = outbound.poll();
+            if (next == null) {
+                break;
+            }
+            batch[batchCount++] = next;
+            bytes += next.remaining();
+        }
+    }
+
+    private void dropWrittenBuffers() {
+        int written = 0;
+        while (written < batchCount && !batch[written].hasRemaining()) {
+            written++;
+        }
+        System.arraycopy(batch, written, batch, 0, batchCount - written);
+        for (int i = batchCount - written; i < batchCount; i++) {
+            batch[i] = null;
+        }
+        batchCount -= written;
+    }
+
+    @Override
+    public void closeEverything() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        onClosed();
+        server.removeClient(this);
+        try {
+            if (key != null) key.cancel();
+            channel.close();
+        } catch (IOException e) {
+            server.log(ServerLog.Level.DEBUG, "Could not close the channel of " + username, e);
+        }
+        outbound.clear();
+    }
+
+    @Override
+    protected int getRemotePort() {
+        return channel.socket().getPort();
+    }
+}
@@ -0,0 +1,164 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// One selector thread serving many connections. Other threads only talk to it
+// through the two queues below and selector.wakeup().
+public class NioEventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Server server;
+    private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<NioClientHandler> pendingWrites = new ConcurrentLinkedQueue<>();
+    // Rate limited connections by when to read from them again (loop thread only)
+    private final PriorityQueue<Paused> paused = new PriorityQueue<>(Comparator.comparingLong(Paused::resumeAt));
+    private volatile boolean running = true;
+    private Thread loopThread;
+
+    public NioEventLoop(Server server) throws IOException {
+        this.selector = Selector.open();
+        this.server = server;
+    }
+
+    public void register(SocketChannel channel) {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    private record Paused(long resumeAt, NioClientHandler client) {
+    }
+
+    // Loop thread: call client.resumeReading() once nanos have passed
+    void resumeLater(NioClientHandler client, long nanos) {
+        paused.add(new Paused(System.nanoTime() + nanos, client));
+    }
+
+    // Called by any thread that queued output for a connection owned by this loop
+    void requestWrite(NioClientHandler client) {
+        pendingWrites.add(client);
+        if (Thread.currentThread() != loopThread) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        loopThread = Thread.currentThread();
+        OutboundQueue.neverBlockThisThread();
+
+        while (running) {
+            try {
+                if (paused.isEmpty()) {
+                    selector.select();
+                } else {
+                    long wait = paused.peek().resumeAt() - System.nanoTime();
+                    if (wait > 0) {
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+                resumePaused();
+                registerNewChannels();
+                flushPendingWrites();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    NioClientHandler client = (NioClientHandler) key.attachment();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable()) {
+                            client.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.flushOutbound();
+                        }
+                    } catch (RuntimeException e) {
+                        failed(client, e);
+                    }
+                }
+
+                // Writes queued while handling reads go out in the same pass
+                flushPendingWrites();
+            } catch (IOException e) {
+                if (running) {
+                    server.log(ServerLog.Level.ERROR, "❌ I/O loop error: " + e.getMessage());
+                }
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            server.log(ServerLog.Level.WARN, "⚠️ Could not close the selector", e);
+        }
+    }
+
+    private void resumePaused() {
+        long now = System.nanoTime();
+        while (!paused.isEmpty() && paused.peek().resumeAt() - now <= 0) {
+            NioClientHandler client = paused.poll().client();
+            try {
+                client.resumeReading();
+            } catch (RuntimeException e) {
+                failed(client, e);
+            }
+        }
+    }
+
+    private void registerNewChannels() {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                // Finds peers that vanished for clients the Heartbeat cannot ping
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                NioClientHandler client = new NioClientHandler(channel, this, server);
+                client.setKey(channel.register(selector, SelectionKey.OP_READ, client));
+            } catch (IOException e) {
+                server.log(ServerLog.Level.ERROR, "❌ Could not register client: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void flushPendingWrites() {
+        NioClientHandler client;
+        while ((client = pendingWrites.poll()) != null) {
+            try {
+                client.flushOutbound();
+            } catch (RuntimeException e) {
+                failed(client, e);
+            }
+        }
+    }
+
+    // A bug in handling one client must not end the loop every other client here depends on
+    private void failed(NioClientHandler client, RuntimeException e) {
+        server.log(ServerLog.Level.ERROR, "❌ Error handling " + client.getUsername() + ", disconnecting", e);
+        client.disconnect(ServerMetrics.Disconnect.ERROR);
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
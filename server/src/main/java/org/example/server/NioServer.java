@@ -0,0 +1,59 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+// Non-blocking server mode: connections are spread over a small fixed pool of
+// selector loops instead of getting a thread each.
+public class NioServer extends Server {
+
+    private final ServerSocketChannel serverChannel;
+    private final NioEventLoop[] loops;
+    private int nextLoop = 0;
+
+    public NioServer(ServerSocketChannel serverChannel, int ioThreads, ServerListener listener) throws IOException {
+        super(serverChannel.socket(), listener);
+        this.serverChannel = serverChannel;
+        this.loops = new NioEventLoop[Math.max(1, ioThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop(this);
+        }
+    }
+
+    @Override
+    public void startServer() {
+        log("🟢 Server started in NIO mode with " + loops.length + " I/O loop(s). Waiting for clients...");
+
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "nio-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try {
+            // Accepting stays blocking on this thread; only the loops select
+            while (serverChannel.isOpen() && isRunning) {
+                SocketChannel channel = serverChannel.accept();
+                getMetrics().connectionsAccepted.increment();
+                log("📡 New client connected from: " + channel.socket().getInetAddress().getHostAddress());
+
+                // Round-robin new connections over the loops
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        } catch (IOException e) {
+            if (isRunning) {
+                log(ServerLog.Level.ERROR, "❌ Server error: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void closeServerSocket() {
+        for (NioEventLoop loop : loops) {
+            loop.shutdown();
+        }
+        super.closeServerSocket();
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded queue of encoded lines waiting to go out to one client. Senders only ever
+// enqueue here, so a client that stops reading can no longer stall the whole room.
+public class OutboundQueue {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,   // make room by throwing away the oldest queued line
+        DISCONNECT,    // the slow consumer gets kicked
+        BLOCK          // the sender waits (bounded by blockTimeoutMillis, then disconnect)
+    }
+
+    // Threads that serve many clients (NIO loops, the timer wheel, the presence flusher,
+    // cluster readers) must never wait on one of them: on those BLOCK acts as DISCONNECT.
+    // A loop waiting for room in a queue that only it can drain would just stall
+    // everyone for blockTimeoutMillis and then disconnect the client anyway.
+    private static final ThreadLocal<Boolean> MAY_BLOCK = ThreadLocal.withInitial(() -> true);
+
+    private final ArrayBlockingQueue<ByteBuffer> queue;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutMillis;
+    private final LongAdder dropped = new LongAdder();
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    // Settings come from config.properties via ServerLauncher
+    public static OutboundQueue fromConfig() {
+        int capacity = Integer.getInteger("server.outbound.capacity", 1024);
+        OverflowPolicy policy = OverflowPolicy.valueOf(
+                System.getProperty("server.outbound.policy", "DROP_OLDEST").trim().toUpperCase());
+        long blockTimeout = Long.getLong("server.outbound.blockTimeoutMillis", 1000);
+        return new OutboundQueue(capacity, policy, blockTimeout);
+    }
+
+    // Returns false when the consumer is too slow and should be disconnected
+    public boolean offer(ByteBuffer message) {
+        switch (policy) {
+            case DROP_OLDEST:
+                while (!queue.offer(message)) {
+                    if (queue.poll() != null) {
+                        dropped.increment();
+                    }
+                }
+                return true;
+            case BLOCK:
+                if (!MAY_BLOCK.get()) {
+                    return queue.offer(message);
+                }
+                try {
+                    return queue.offer(message, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case DISCONNECT:
+            default:
+                return queue.offer(message);
+        }
+    }
+
+    // Called once by each thread that must not block, before it sends anything
+    public static void neverBlockThisThread() {
+        MAY_BLOCK.set(false);
+    }
+
+    public ByteBuffer take() throws InterruptedException {
+        return queue.take();
+    }
+
+    public ByteBuffer poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    public ByteBuffer poll() {
+        return queue.poll();
+    }
+
+    public void clear() {
+        queue.clear();
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,205 @@
+package org.example.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Our outgoing connection to one peer node. Relayed events queue up here and the
+// link's own thread sends whatever has piled up as one batch, so a busy room costs
+// one write per batch instead of one per line, and a slow peer only ever holds up
+// its own queue. The link reconnects with backoff; every new connection starts with
+// a snapshot of our users, which resynchronises the peer's view of us.
+public class PeerLink {
+
+    private static final int MAX_BATCH = 256;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    // An idle link sends an empty batch this often, so a peer that went away is
+    // noticed (and the link reconnected, with a snapshot) without waiting for traffic
+    static final long KEEPALIVE_MILLIS = 1000;
+    // A connection that breaks sooner than this does not reset the backoff, so a peer
+    // that keeps turning us away is not hammered
+    private static final long STABLE_MILLIS = 10_000;
+
+    private final ClusterNode cluster;
+    private final InetSocketAddress address;
+    private final long lingerMicros;
+    private final LinkedBlockingQueue<RelayMessage> queue;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean running = true;
+    // Only queue while connected: the snapshot on the next connection covers the gap
+    private volatile boolean connected;
+    private volatile Socket socket;
+
+    public PeerLink(ClusterNode cluster, InetSocketAddress address, int queueCapacity, long lingerMicros) {
+        this.cluster = cluster;
+        this.address = address;
+        this.lingerMicros = lingerMicros;
+        this.queue = new LinkedBlockingQueue<>(Math.max(1, queueCapacity));
+
+        writer = new Thread(this::writeLoop, "cluster-link-" + address.getPort());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Never blocks: with the peer down or far behind, the event is dropped
+    public void relay(RelayMessage message) {
+        if (!connected) {
+            return;
+        }
+        if (!queue.offer(message)) {
+            dropped.increment();
+        }
+    }
+
+    // ClusterNode.openLink(), together with numbering the snapshot
+    void markConnected() {
+        connected = true;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public void close() {
+        running = false;
+        writer.interrupt();
+        closeSocket();
+    }
+
+    private void writeLoop() {
+        List<RelayMessage> batch = new ArrayList<>(MAX_BATCH);
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (running) {
+            DataOutputStream out;
+            long connectedAt;
+            try {
+                out = connect(batch);
+                connectedAt = System.nanoTime();
+            } catch (IOException e) {
+                connected = false;
+                queue.clear();
+                closeSocket();
+                if (!sleep(backoff)) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                continue;
+            }
+
+            try {
+                while (running) {
+                    RelayMessage first = queue.poll(KEEPALIVE_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        linger();
+                        queue.drainTo(batch, MAX_BATCH - 1);
+                    }
+                    writeBatch(out, batch);
+                    // Kept until written: after a failure it is sent again and the peer
+                    // drops whatever it had already applied
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                cluster.getServer().log(ServerLog.Level.WARN,
+                        "⚠️ Lost cluster peer " + address + ": " + e.getMessage());
+            }
+            connected = false;
+            queue.clear();
+            closeSocket();
+            if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectedAt) >= STABLE_MILLIS) {
+                backoff = MIN_BACKOFF_MILLIS;
+            } else {
+                if (!sleep(backoff)) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+        closeSocket();
+    }
+
+    // Handshake, then the batch a failed connection left unsent, then our users
+    private DataOutputStream connect(List<RelayMessage> unsent) throws IOException {
+        Socket s = new Socket();
+        socket = s;
+        s.connect(address, CONNECT_TIMEOUT_MILLIS);
+        s.setTcpNoDelay(true);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024));
+        out.writeInt(ClusterNode.MAGIC);
+        out.writeUTF(cluster.getNodeId());
+        out.writeLong(cluster.getIncarnation());
+        out.write(cluster.proof(cluster.getNodeId(), cluster.getIncarnation()));
+
+        // Anything that happens from here on is queued, so the snapshot can only be
+        // older than what follows it, never newer
+        RelayMessage snapshot = cluster.openLink(this);
+        if (!unsent.isEmpty()) {
+            writeBatch(out, unsent);
+            unsent.clear();
+        }
+        writeBatch(out, List.of(snapshot));
+        cluster.getServer().log("🔗 Linked to cluster peer " + address);
+        return out;
+    }
+
+    private void writeBatch(DataOutputStream out, List<RelayMessage> batch) throws IOException {
+        out.writeInt(batch.size());
+        for (RelayMessage message : batch) {
+            message.writeTo(out);
+        }
+        out.flush();
+        if (batch.isEmpty()) {
+            return;
+        }
+        cluster.getServer().getMetrics().clusterBatchesOut.increment();
+        cluster.getServer().getMetrics().clusterMessagesOut.add(batch.size());
+    }
+
+    // While traffic is bursty, wait a moment so the batch fills up
+    private void linger() throws InterruptedException {
+        if (lingerMicros > 0 && queue.size() < MAX_BATCH - 1) {
+            TimeUnit.MICROSECONDS.sleep(lingerMicros);
+        }
+    }
+
+    private boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return running;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private void closeSocket() {
+        Socket s = socket;
+        if (s == null) {
+            return;
+        }
+        try {
+            s.close();
+        } catch (IOException ignored) {
+            // Already gone
+        }
+    }
+}
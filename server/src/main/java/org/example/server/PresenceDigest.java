@@ -0,0 +1,154 @@
+package org.example.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Joins and leaves, gathered per room for windowMillis and announced together. When
+// thousands of clients reconnect at once, each room gets one "🟢 42 users joined: ..."
+// line per window instead of one line per user for every member.
+//
+// Within a window changes cancel out: someone who drops and reconnects is not
+// announced at all. Clients that subscribed to the presence stream get a PRESENCE
+// frame with the same changes as "+name" / "-name" lines instead of the text.
+public class PresenceDigest {
+
+    // Names listed in a digest line before "and N more"
+    private static final int NAMES_SHOWN = 3;
+
+    private final Server server;
+    private final long windowMillis;
+    // room -> username -> net change in this window (> 0 joined, < 0 left)
+    private final ConcurrentHashMap<String, Map<String, Integer>> pending = new ConcurrentHashMap<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    public PresenceDigest(Server server, long windowMillis) {
+        this.server = server;
+        this.windowMillis = Math.max(1, windowMillis);
+
+        flusher = new Thread(this::flushLoop, "presence-digest");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public static PresenceDigest fromConfig(Server server) {
+        return new PresenceDigest(server, Long.getLong("server.presence.windowMillis", 250));
+    }
+
+    public void joined(String room, String username) {
+        change(room, username, 1);
+    }
+
+    public void left(String room, String username) {
+        change(room, username, -1);
+    }
+
+    private void change(String room, String username, int delta) {
+        // Inside compute() so the flusher never takes a map someone is still adding to
+        pending.compute(room, (name, changes) -> {
+            if (changes == null) {
+                changes = new LinkedHashMap<>();
+            }
+            changes.merge(username, delta, (a, b) -> a + b == 0 ? null : a + b);
+            return changes;
+        });
+        server.getMetrics().presenceEvents.increment();
+    }
+
+    // The whole room for a subscriber that just asked or just moved: local members
+    // and, in a cluster, those on the other nodes
+    public Frame snapshot(String room) {
+        StringBuilder lines = new StringBuilder("=");
+        for (ClientConnection client : server.getRooms().members(room)) {
+            lines.append("\n+").append(client.getUsername());
+        }
+        ClusterNode cluster = server.getCluster();
+        if (cluster != null) {
+            for (ClusterNode.RemoteUser user : cluster.remoteMembers(room)) {
+                lines.append("\n+").append(user.username());
+            }
+        }
+        return new Frame(Frame.PRESENCE, 0, lines.toString());
+    }
+
+    public void stop() {
+        running = false;
+        flusher.interrupt();
+    }
+
+    private void flushLoop() {
+        OutboundQueue.neverBlockThisThread();
+        while (running) {
+            try {
+                Thread.sleep(windowMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            for (String room : pending.keySet()) {
+                Map<String, Integer> changes = pending.remove(room);
+                if (changes != null && !changes.isEmpty()) {
+                    announce(room, changes);
+                }
+            }
+        }
+    }
+
+    private void announce(String room, Map<String, Integer> changes) {
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        StringBuilder delta = new StringBuilder();
+        for (Map.Entry<String, Integer> change : changes.entrySet()) {
+            boolean join = change.getValue() > 0;
+            (join ? joined : left).add(change.getKey());
+            if (!delta.isEmpty()) {
+                delta.append('\n');
+            }
+            delta.append(join ? '+' : '-').append(change.getKey());
+        }
+
+        String text;
+        byte type;
+        if (left.isEmpty()) {
+            text = describe("🟢", joined, "joined");
+            type = Frame.JOIN;
+        } else if (joined.isEmpty()) {
+            text = describe("🔴", left, "left");
+            type = Frame.LEAVE;
+        } else {
+            text = describe("🟢", joined, "joined") + "\n" + describe("🔴", left, "left");
+            type = Frame.SYSTEM;
+        }
+        // Each encoded once, whatever the size of the room
+        Frame digest = new Frame(type, 0, text);
+        Frame deltaFrame = new Frame(Frame.PRESENCE, 0, delta.toString());
+        // Nobody needs telling that they themselves just joined
+        String self = changes.size() == 1 ? joined.isEmpty() ? null : joined.get(0) : null;
+
+        server.getHistory().record(room, "", digest);
+        for (ClientConnection client : server.getRooms().members(room)) {
+            if (client.isPresenceSubscriber()) {
+                client.send(deltaFrame);
+            } else if (!client.getUsername().equals(self)) {
+                client.send(digest);
+            }
+        }
+        server.getMetrics().presenceDigests.increment();
+    }
+
+    private static String describe(String icon, List<String> users, String verb) {
+        if (users.size() == 1) {
+            return icon + " " + users.get(0) + " " + verb;
+        }
+        StringBuilder text = new StringBuilder(icon + " " + users.size() + " users " + verb + ": ");
+        for (int i = 0; i < Math.min(NAMES_SHOWN, users.size()); i++) {
+            text.append(i > 0 ? ", " : "").append(users.get(i));
+        }
+        if (users.size() > NAMES_SHOWN) {
+            text.append(" and ").append(users.size() - NAMES_SHOWN).append(" more");
+        }
+        return text.toString();
+    }
+}
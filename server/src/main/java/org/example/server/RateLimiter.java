@@ -0,0 +1,101 @@
+package org.example.server;
+
+import java.util.concurrent.TimeUnit;
+
+// Inbound limits for one connection: a token bucket for messages and one for bytes,
+// plus what happens to a client that keeps hitting them. Every message that finds a
+// bucket empty is a strike; strikes are forgotten after strikeWindowMillis without
+// one. At muteAfter strikes the client's chat is dropped for muteMillis, at kickAfter
+// it is disconnected.
+//
+// Only the connection's reader calls into it, so like TokenBucket it takes no locks.
+public class RateLimiter {
+
+    public enum Action {
+        NONE,
+        MUTE,
+        KICK
+    }
+
+    private final TokenBucket messages;
+    private final TokenBucket bytes;
+    private final int muteAfter;
+    private final int kickAfter;
+    private final long muteNanos;
+    private final long strikeWindowNanos;
+
+    private int strikes;
+    private long lastStrike;
+    private long mutedUntil;
+    private boolean muted;
+
+    public RateLimiter(double messagesPerSecond, double messageBurst, double bytesPerSecond, double byteBurst,
+                       int muteAfter, long muteMillis, int kickAfter, long strikeWindowMillis) {
+        long now = System.nanoTime();
+        this.messages = messagesPerSecond > 0 ? new TokenBucket(messagesPerSecond, messageBurst, now) : null;
+        this.bytes = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, byteBurst, now) : null;
+        this.muteAfter = muteAfter;
+        this.kickAfter = kickAfter;
+        this.muteNanos = TimeUnit.MILLISECONDS.toNanos(muteMillis);
+        this.strikeWindowNanos = TimeUnit.MILLISECONDS.toNanos(strikeWindowMillis);
+    }
+
+    // Null when both rates are 0; settings come from config.properties via ServerLauncher
+    public static RateLimiter fromConfig() {
+        double messagesPerSecond = Double.parseDouble(System.getProperty("server.rateLimit.messagesPerSecond", "20"));
+        double bytesPerSecond = Double.parseDouble(System.getProperty("server.rateLimit.bytesPerSecond", "65536"));
+        if (messagesPerSecond <= 0 && bytesPerSecond <= 0) {
+            return null;
+        }
+        return new RateLimiter(
+                messagesPerSecond,
+                Double.parseDouble(System.getProperty("server.rateLimit.messageBurst", "40")),
+                bytesPerSecond,
+                Double.parseDouble(System.getProperty("server.rateLimit.byteBurst", "262144")),
+                Integer.getInteger("server.rateLimit.muteAfter", 50),
+                Long.getLong("server.rateLimit.muteMillis", 30_000),
+                Integer.getInteger("server.rateLimit.kickAfter", 200),
+                Long.getLong("server.rateLimit.strikeWindowMillis", 10_000));
+    }
+
+    // Charges one message of the given size; returns how long the reader should stop reading
+    public long consume(int size, long now) {
+        long pause = 0;
+        if (messages != null) {
+            pause = messages.consume(1, now);
+        }
+        if (bytes != null) {
+            pause = Math.max(pause, bytes.consume(size, now));
+        }
+        return pause;
+    }
+
+    // Records that a message found a bucket empty; says what to do about the client
+    public Action strike(long now) {
+        if (now - lastStrike > strikeWindowNanos) {
+            strikes = 0;
+        }
+        lastStrike = now;
+        strikes++;
+        if (kickAfter > 0 && strikes >= kickAfter) {
+            return Action.KICK;
+        }
+        if (muteAfter > 0 && strikes == muteAfter) {
+            muted = true;
+            mutedUntil = now + muteNanos;
+            return Action.MUTE;
+        }
+        return Action.NONE;
+    }
+
+    public boolean isMuted(long now) {
+        if (muted && now - mutedUntil >= 0) {
+            muted = false;
+        }
+        return muted;
+    }
+
+    public long getMuteMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(muteNanos);
+    }
+}
@@ -0,0 +1,59 @@
+package org.example.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// One event relayed between cluster nodes. On the peer link they travel in batches:
+//
+//     int count | count x (byte kind | long seq | byte frameType | room | username | text)
+//
+// where each string is an int length and UTF-8 bytes. seq is assigned once by the node
+// where the event happened, so a receiver can drop anything it has already applied.
+public record RelayMessage(byte kind, long seq, byte frameType, String room, String username, String text) {
+
+    // A line broadcast to room; frameType and text are what local clients got
+    public static final byte BROADCAST = 1;
+    public static final byte USER_JOINED = 2;
+    public static final byte USER_LEFT = 3;
+    // room is the user's new room
+    public static final byte USER_MOVED = 4;
+    // Everyone on the sending node, one "username\troom" per line: replaces what we knew
+    public static final byte SNAPSHOT = 5;
+
+    // Room and username are short; a snapshot can list a lot of users
+    private static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(kind);
+        out.writeLong(seq);
+        out.writeByte(frameType);
+        writeString(out, room);
+        writeString(out, username);
+        writeString(out, text);
+    }
+
+    public static RelayMessage readFrom(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        long seq = in.readLong();
+        byte frameType = in.readByte();
+        return new RelayMessage(kind, seq, frameType, readString(in), readString(in), readString(in));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Invalid relay string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,60 @@
+package org.example.server;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Named chat rooms and who is subscribed to each. A broadcast only walks the members
+// of the sender's room, so its cost follows the audience, not the whole server.
+// Everyone starts in the lobby; other rooms exist while they have members.
+public class RoomRegistry {
+
+    public static final String LOBBY = "lobby";
+    public static final int MAX_NAME_LENGTH = 32;
+
+    private final ConcurrentHashMap<String, Set<ClientConnection>> rooms = new ConcurrentHashMap<>();
+
+    public void join(String room, ClientConnection client) {
+        // Inside compute() so a concurrent leave() cannot drop the set we are adding to
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+            }
+            members.add(client);
+            return members;
+        });
+    }
+
+    public void leave(String room, ClientConnection client) {
+        rooms.computeIfPresent(room, (name, members) -> {
+            members.remove(client);
+            return members.isEmpty() && !name.equals(LOBBY) ? null : members;
+        });
+    }
+
+    // Weakly consistent view, safe to iterate while people come and go
+    public Collection<ClientConnection> members(String room) {
+        Set<ClientConnection> members = rooms.get(room);
+        return members != null ? members : List.of();
+    }
+
+    public Set<String> names() {
+        return rooms.keySet();
+    }
+
+    // Lower-case, no spaces; returns null if nothing usable is left
+    public static String normalize(String room) {
+        if (room == null) {
+            return null;
+        }
+        String name = room.trim().toLowerCase().replaceAll("\\s+", "-");
+        if (name.startsWith("#")) {
+            name = name.substring(1);
+        }
+        if (name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            return null;
+        }
+        return name;
+    }
+}
@@ -0,0 +1,216 @@
+package org.example.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Inverted index over the chat lines in the MessageJournal. Every word, sender and room
+// maps to the sorted list of journal offsets it occurs at; per offset we also keep the
+// timestamp and where the record sits on disk. That is about 12 bytes per message plus
+// the postings, so millions of messages stay in memory and a query only intersects a
+// few sorted arrays before reading the handful of matching records back from disk.
+//
+// Fed by the journal's writer thread right after each group commit, so the broadcast
+// path never tokenizes anything.
+public class SearchIndex {
+
+    // Where a matching record is: the segment's base offset and the byte position in it
+    public record Hit(long offset, long segmentBase, int position) {
+    }
+
+    // Journal timestamps are taken just before the offset is handed out, so they can be
+    // a little out of order; a time-bounded scan keeps going this far past its bound
+    private static final long CLOCK_SLACK_MILLIS = 1000;
+    private static final int NOT_CHAT = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HashMap<String, LongList> postings = new HashMap<>();
+    private final TreeSet<Long> segmentBases = new TreeSet<>();
+    // Indexed by offset - firstOffset. Join/leave notices get a slot but no postings;
+    // a timestamp of 0 is an offset the journal had to drop.
+    private long firstOffset = -1;
+    private long[] timestamps = new long[1024];
+    private int[] positions = new int[1024];
+    private int size;
+
+    // Called by the journal writer, in offset order
+    public void add(JournalRecord record, long segmentBase, int position) {
+        lock.writeLock().lock();
+        try {
+            if (firstOffset < 0) {
+                firstOffset = record.getOffset();
+            }
+            segmentBases.add(segmentBase);
+            if (record.getOffset() < firstOffset + size) {
+                return;
+            }
+
+            int slot = (int) (record.getOffset() - firstOffset);
+            if (slot >= timestamps.length) {
+                int capacity = Math.max(slot + 1, timestamps.length * 2);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+            }
+            // Every record keeps its timestamp so the slots stay sorted by time
+            timestamps[slot] = record.getTimestamp();
+            positions[slot] = record.getType() == Frame.CHAT ? position : NOT_CHAT;
+            size = slot + 1;
+            if (record.getType() != Frame.CHAT) {
+                return;
+            }
+
+            long offset = record.getOffset();
+            posting("u:" + record.getUsername().toLowerCase()).add(offset);
+            posting("r:" + record.getRoom()).add(offset);
+            for (String token : tokenize(messageOf(record))) {
+                posting("w:" + token).add(offset);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Newest matches first, at most limit of them
+    public List<Hit> find(SearchQuery query, int limit) {
+        List<String> keys = new ArrayList<>();
+        for (String keyword : query.getKeywords()) {
+            keys.add("w:" + keyword);
+        }
+        if (query.getUsername() != null) {
+            keys.add("u:" + query.getUsername().toLowerCase());
+        }
+        if (query.getRoom() != null) {
+            keys.add("r:" + query.getRoom());
+        }
+
+        lock.readLock().lock();
+        try {
+            List<LongList> lists = new ArrayList<>();
+            for (String key : keys) {
+                LongList list = postings.get(key);
+                if (list == null) {
+                    return List.of();
+                }
+                lists.add(list);
+            }
+            // Walk the rarest term and probe the others
+            lists.sort(Comparator.comparingInt(list -> list.size));
+
+            List<Hit> hits = new ArrayList<>();
+            LongList driver = lists.isEmpty() ? null : lists.get(0);
+            int count = driver == null ? size : driver.size;
+            // Skip straight past everything newer than the range
+            int last = query.getUntilMillis() == Long.MAX_VALUE
+                    ? count - 1
+                    : lastBefore(driver, count, query.getUntilMillis() + CLOCK_SLACK_MILLIS);
+            for (int i = last; i >= 0 && hits.size() < limit; i--) {
+                long offset = driver == null ? firstOffset + i : driver.values[i];
+                if (!collect(offset, query, lists, hits)) {
+                    break;
+                }
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Adds the offset if it matches. Returns false once we are well before the time range.
+    private boolean collect(long offset, SearchQuery query, List<LongList> lists, List<Hit> hits) {
+        int slot = (int) (offset - firstOffset);
+        long timestamp = timestamps[slot];
+        if (timestamp == 0 || positions[slot] == NOT_CHAT) {
+            return true;
+        }
+        if (timestamp < query.getSinceMillis()) {
+            return timestamp >= query.getSinceMillis() - CLOCK_SLACK_MILLIS;
+        }
+        if (timestamp > query.getUntilMillis()) {
+            return true;
+        }
+        for (int i = 1; i < lists.size(); i++) {
+            if (!lists.get(i).contains(offset)) {
+                return true;
+            }
+        }
+        hits.add(new Hit(offset, segmentBases.floor(offset), positions[slot]));
+        return true;
+    }
+
+    // Binary search over the driver (or over all slots when there is none) for the last
+    // position whose timestamp is at most bound. Dropped offsets count as older.
+    private int lastBefore(LongList driver, int count, long bound) {
+        int low = 0;
+        int high = count - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long offset = driver == null ? firstOffset + mid : driver.values[mid];
+            if (timestamps[(int) (offset - firstOffset)] <= bound) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private LongList posting(String key) {
+        return postings.computeIfAbsent(key, k -> new LongList());
+    }
+
+    // Chat lines are stored as "[time] user: message"; only the message is indexed
+    private static String messageOf(JournalRecord record) {
+        String text = record.getText();
+        String prefix = record.getUsername() + ": ";
+        int start = text.indexOf(prefix);
+        return start >= 0 ? text.substring(start + prefix.length()) : text;
+    }
+
+    // Lower-case words of letters and digits, each once
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String token : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    // Growable sorted long[]; offsets only ever arrive in increasing order
+    private static final class LongList {
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        boolean contains(long value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.server;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+// A parsed search, e.g. "from:alice since:14:00 until:15:30 deploy failed".
+// Every plain word must appear in the message; the filters are all optional.
+public final class SearchQuery {
+
+    private final List<String> keywords;
+    private final String username;
+    private final String room;
+    private final long sinceMillis;
+    private final long untilMillis;
+
+    public SearchQuery(List<String> keywords, String username, String room, long sinceMillis, long untilMillis) {
+        this.keywords = keywords;
+        this.username = username;
+        this.room = room;
+        this.sinceMillis = sinceMillis;
+        this.untilMillis = untilMillis;
+    }
+
+    // Throws DateTimeParseException for a since:/until: that is not a time
+    public static SearchQuery parse(String query) {
+        List<String> keywords = new ArrayList<>();
+        String username = null;
+        String room = null;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        for (String part : query.trim().split("\\s+")) {
+            String lower = part.toLowerCase();
+            if (lower.startsWith("from:") && part.length() > 5) {
+                username = part.substring(5);
+            } else if (lower.startsWith("room:") && part.length() > 5) {
+                room = RoomRegistry.normalize(part.substring(5));
+            } else if (lower.startsWith("since:")) {
+                since = parseTime(part.substring(6));
+            } else if (lower.startsWith("until:")) {
+                until = parseTime(part.substring(6));
+            } else {
+                keywords.addAll(SearchIndex.tokenize(part));
+            }
+        }
+        return new SearchQuery(keywords, username, room, since, until);
+    }
+
+    // "14:05" is today, "2024-05-01T14:05" is a full local date and time
+    public static long parseTime(String time) {
+        if (time.isEmpty()) {
+            throw new DateTimeParseException("Empty time", time, 0);
+        }
+        LocalDateTime dateTime = time.indexOf('T') > 0
+                ? LocalDateTime.parse(time)
+                : LocalDate.now().atTime(LocalTime.parse(time));
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public SearchQuery inRoom(String room) {
+        return new SearchQuery(keywords, username, room, sinceMillis, untilMillis);
+    }
+
+    public boolean isEmpty() {
+        return keywords.isEmpty() && username == null && room == null
+                && sinceMillis == Long.MIN_VALUE && untilMillis == Long.MAX_VALUE;
+    }
+
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public long getSinceMillis() {
+        return sinceMillis;
+    }
+
+    public long getUntilMillis() {
+        return untilMillis;
+    }
+}
@@ -1,40 +1,90 @@
 package org.example.server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class Server {
 
     private ServerSocket serverSocket;
-    public static CopyOnWriteArrayList<ClientHandler> clients = new CopyOnWriteArrayList<>();
-    private boolean isRunning = true;
-    private ServerController controller;
+    private final ClientRegistry clients = new ClientRegistry();
+    private final RoomRegistry rooms = new RoomRegistry();
+    private final ServerMetrics metrics = new ServerMetrics(this);
+    private final ServerLog logger;
+    protected volatile boolean isRunning = true;
+    protected ServerListener listener;
+    private final ExecutorService handlerExecutor;
+    // Null when server.journal.enabled=false
+    private final MessageJournal journal;
+    private final MessageHistory history;
+    // Disk reads for /history and /search, kept off the NIO loops; null without a journal
+    private final ExecutorService journalReaders;
+    // Null unless server.metrics.port is set
+    private final MetricsHttpServer metricsEndpoint;
+    // Null unless server.cluster.port is set
+    private final ClusterNode cluster;
+    // Null when server.heartbeat.intervalMillis=0
+    private final Heartbeat heartbeat;
+    private final PresenceDigest presence;
+    private final UserIndex users = UserIndex.fromConfig();
 
-    public Server(ServerSocket serverSocket, ServerController controller) {
+    public Server(ServerSocket serverSocket, ServerListener listener) {
         this.serverSocket = serverSocket;
-        this.controller = controller;
+        this.listener = listener;
+        this.logger = ServerLog.fromConfig();
+        logger.subscribe(listener);
+
+        // Virtual threads: the blocking readLine() stays, but an idle client costs a
+        // small heap object instead of a whole OS thread
+        ThreadFactory factory = Boolean.getBoolean("server.virtualThreads")
+                ? Thread.ofVirtual().name("client-", 0).factory()
+                : Thread.ofPlatform().name("client-", 0).factory();
+        this.handlerExecutor = Executors.newThreadPerTaskExecutor(factory);
+        this.journal = MessageJournal.fromConfig(this);
+        this.history = MessageHistory.fromConfig(journal);
+        this.journalReaders = journal == null ? null : Executors.newFixedThreadPool(
+                Math.max(1, Integer.getInteger("server.journal.readThreads", 2)),
+                Thread.ofPlatform().name("journal-reader-", 0).daemon(true).factory());
+        this.metricsEndpoint = MetricsHttpServer.fromConfig(this);
+        // Before the cluster, whose peers report their users' joins and leaves to it
+        this.presence = PresenceDigest.fromConfig(this);
+        this.cluster = ClusterNode.fromConfig(this);
+        this.heartbeat = Heartbeat.fromConfig(this);
+    }
+
+    // Binds the port and picks the connection model from server.mode:
+    // "threaded" = one thread per client, "nio" = a few selector loops for everyone
+    public static Server create(int port, ServerListener listener) throws IOException {
+        String mode = System.getProperty("server.mode", "threaded");
+        if (mode.equalsIgnoreCase("nio")) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.bind(new InetSocketAddress(port));
+            return new NioServer(channel, Integer.getInteger("server.ioThreads", 2), listener);
+        }
+        return new Server(new ServerSocket(port), listener);
     }
 
     public void startServer() {
-        ServerController.log("🟢 Server started. Waiting for clients...");
+        log("🟢 Server started. Waiting for clients...");
 
         try {
             while (!serverSocket.isClosed() && isRunning) {
                 Socket socket = serverSocket.accept();
-                ServerController.log("📡 New client connected from: " + socket.getInetAddress().getHostAddress());
+                metrics.connectionsAccepted.increment();
+                log("📡 New client connected from: " + socket.getInetAddress().getHostAddress());
 
-                ClientHandler clientHandler = new ClientHandler(socket, controller);
-                clients.add(clientHandler);
-                clientHandler.start();
-
-                // Update user list in UI
-                controller.updateUserList();
+                // The handler reads the username on its own thread, so a slow client
+                // cannot hold up accept() for everyone else
+                handlerExecutor.execute(new ClientHandler(socket, this, handlerExecutor));
             }
         } catch (IOException e) {
             if (isRunning) {
-                ServerController.log("❌ Server error: " + e.getMessage());
+                log(ServerLog.Level.ERROR, "❌ Server error: " + e.getMessage());
             }
         }
     }
@@ -43,21 +93,178 @@ public class Server {
         isRunning = false;
         try {
             // Disconnect all clients
-            for (ClientHandler client : clients) {
-                client.closeEverything();
+            for (ClientConnection client : clients.all()) {
+                client.disconnect(ServerMetrics.Disconnect.SHUTDOWN);
             }
             clients.clear();
+            handlerExecutor.shutdownNow();
+            if (heartbeat != null) {
+                heartbeat.stop();
+            }
+            presence.stop();
+            if (cluster != null) {
+                cluster.close();
+            }
+            if (journalReaders != null) {
+                journalReaders.shutdownNow();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+            if (metricsEndpoint != null) {
+                metricsEndpoint.stop();
+            }
 
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
-            ServerController.log("🔴 Server stopped");
+            log("🔴 Server stopped");
         } catch (IOException e) {
-            e.printStackTrace();
+            log(ServerLog.Level.WARN, "⚠️ Could not close the server socket", e);
+        }
+        logger.close();
+    }
+
+    public void log(String message) {
+        logger.log(ServerLog.Level.INFO, message, null);
+    }
+
+    public void log(ServerLog.Level level, String message) {
+        logger.log(level, message, null);
+    }
+
+    public void log(ServerLog.Level level, String message, Throwable error) {
+        logger.log(level, message, error);
+    }
+
+    // For callers that would build an expensive message
+    public boolean isLogEnabled(ServerLog.Level level) {
+        return logger.isEnabled(level);
+    }
+
+    // Both under the client's lock: a client that closes while it is being added (the
+    // heartbeat reaper can get there first) is either never added or fully removed
+    public void addClient(ClientConnection client) {
+        synchronized (client) {
+            if (client.isClosed()) {
+                // If it closed before its name was reserved, its removeClient() had no
+                // name to give back, so the reservation would outlive it
+                clients.releaseUsername(client.getUsername(), client);
+                return;
+            }
+            clients.add(client);
+            rooms.join(client.getRoom(), client);
+            listener.userJoined(client.getUsername());
+            memberJoined(client.getRoom(), client.getUsername(), null);
+            if (cluster != null) {
+                cluster.userJoined(client.getUsername(), client.getRoom());
+            }
+        }
+    }
+
+    public void removeClient(ClientConnection client) {
+        synchronized (client) {
+            if (clients.remove(client)) {
+                rooms.leave(client.getRoom(), client);
+                listener.userLeft(client.getUsername());
+                memberLeft(client.getRoom(), client.getUsername(), null);
+                if (cluster != null) {
+                    cluster.userLeft(client.getUsername(), client.getRoom());
+                }
+            }
+        }
+    }
+
+    // Every change of who is in a room, ours (nodeId null) or on another node, passes
+    // through these two: the user index sees it at once, the room in the next digest
+    public void memberJoined(String room, String username, String nodeId) {
+        users.add(room, username, nodeId);
+        presence.joined(room, username);
+    }
+
+    public void memberLeft(String room, String username, String nodeId) {
+        users.remove(room, username, nodeId);
+        presence.left(room, username);
+    }
+
+    // Queues the frame for every local member of the room except one; returns how many
+    public int deliver(String room, Frame frame, ClientConnection except) {
+        int recipients = 0;
+        for (ClientConnection client : rooms.members(room)) {
+            try {
+                if (client != except) {
+                    client.send(frame);
+                    recipients++;
+                }
+            } catch (Exception e) {
+                client.disconnect(ServerMetrics.Disconnect.ERROR);
+            }
         }
+        return recipients;
+    }
+
+    // A broadcast relayed from another cluster node: our members of the room hear it
+    // and it goes into our history like one of our own
+    public void deliverRemote(String room, String username, Frame frame) {
+        history.record(room, username, frame);
+        long start = System.nanoTime();
+        int recipients = deliver(room, frame, null);
+        metrics.broadcastTime.observe(System.nanoTime() - start);
+        metrics.broadcasts.increment();
+        metrics.broadcastRecipients.add(recipients);
+    }
+
+    public ClientRegistry getClients() {
+        return clients;
+    }
+
+    public RoomRegistry getRooms() {
+        return rooms;
+    }
+
+    public MessageJournal getJournal() {
+        return journal;
+    }
+
+    public MessageHistory getHistory() {
+        return history;
+    }
+
+    // Runs a read of the journal on the reader pool, whose results the task sends back
+    // through the client's outbound queue. Without a journal nothing touches the disk
+    // and the task runs right here.
+    public void readJournal(Runnable task) {
+        if (journalReaders == null) {
+            task.run();
+            return;
+        }
+        journalReaders.execute(() -> {
+            OutboundQueue.neverBlockThisThread();
+            task.run();
+        });
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Heartbeat getHeartbeat() {
+        return heartbeat;
+    }
+
+    public UserIndex getUsers() {
+        return users;
+    }
+
+    public PresenceDigest getPresence() {
+        return presence;
+    }
+
+    public ClusterNode getCluster() {
+        return cluster;
     }
 
-    public static void removeClient(ClientHandler client) {
-        clients.remove(client);
+    public ServerLog getLog() {
+        return logger;
     }
 }
\ No newline at end of file
@@ -1,30 +1,39 @@
 package org.example.server;
 
+import javafx.animation.Animation;
+import javafx.animation.AnimationTimer;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
 import javafx.scene.layout.HBox;
-import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
+import javafx.util.Duration;
 import javafx.scene.control.ListCell;
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.URL;
-import java.text.SimpleDateFormat;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class ServerController implements Initializable {
+public class ServerController implements Initializable, ServerListener {
 
     @FXML
-    private ScrollPane sp_main;
-    @FXML
-    private VBox vbox_messages;
+    private ListView<String> logListView;
     @FXML
     private ListView<String> userListView;
     @FXML
@@ -39,14 +48,37 @@ public class ServerController implements Initializable {
     private Button stopButton;
     @FXML
     private Button clearButton;
+    @FXML
+    private TextField searchField;
+    @FXML
+    private Label searchStatusLabel;
+    @FXML
+    private Label statsLabel;
 
-    private static VBox staticVBox;
-    private static SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final int SEARCH_RESULTS = 500;
+    // Log lines from any thread wait here until the next frame picks them up
+    private final ConcurrentLinkedQueue<String> pendingLog = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean logDrainScheduled = new AtomicBoolean(false);
+    private final LogBuffer logBuffer = new LogBuffer(Integer.getInteger("server.log.capacity", 10_000));
+    private AnimationTimer logDrainer;
     private Map<String, String> userColors = new HashMap<>();
     private Random random = new Random();
     private Server server;
     private int serverPort = 3333;
-    private Timer userListUpdateTimer;
+    // Joins and leaves from any thread, folded into the user list once per frame
+    private final ConcurrentLinkedQueue<UserDelta> userDeltas = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean userListDrainScheduled = new AtomicBoolean(false);
+    private AnimationTimer userListDrainer;
+    private Timeline statsRefresher;
+    // Counter values at the previous refresh, to show per-second rates
+    private long lastMessagesIn;
+    private long lastMessagesOut;
+    private long lastBytesIn;
+    private long lastBytesOut;
+
+    private record UserDelta(String username, int change) {
+    }
 
     public void setServerPort(int port) {
         this.serverPort = port;
@@ -54,124 +86,259 @@ public class ServerController implements Initializable {
             portLabel.setText("Port: " + port);
         }
         try {
-            server = new Server(new ServerSocket(serverPort), this);
+            server = Server.create(serverPort, this);
             // Run server on background thread
             new Thread(server::startServer).start();
 
-            log("🟢 Server started on port " + serverPort);
+            server.log("🟢 Server started on port " + serverPort);
             updateStatus("RUNNING", Color.GREEN);
 
-            // Start timer to update user list periodically
-            startUserListUpdates();
-
         } catch (IOException e) {
             log("❌ Error starting server on port " + serverPort);
             log("❌ " + e.getMessage());
             updateStatus("ERROR", Color.RED);
-            e.printStackTrace();
         }
     }
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
-        staticVBox = vbox_messages;
-
         // Initialize UI
         updateStatus("STARTING", Color.GRAY);
         portLabel.setText("Port: " + serverPort);
 
-        // Auto-scroll to bottom when new messages arrive
-        vbox_messages.heightProperty().addListener((obs, oldVal, newVal) ->
-                sp_main.setVvalue((Double) newVal));
+        // Log view: a virtualized list over the ring buffer, so only visible rows have nodes
+        logListView.setItems(logBuffer);
+        logListView.setCellFactory(lv -> new LogCell());
+
+        // Runs at most once per pulse and only while there is something to show
+        logDrainer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drainLog();
+            }
+        };
 
         // Button actions
         stopButton.setOnAction(e -> stopServer());
         clearButton.setOnAction(e -> clearLog());
 
-        // Initial user list update
-        updateUserList();
-    }
+        // Enter searches the journal; an empty box goes back to the live log
+        searchField.setOnAction(e -> search(searchField.getText()));
 
-    private void startUserListUpdates() {
-        userListUpdateTimer = new Timer(true);
-        userListUpdateTimer.scheduleAtFixedRate(new TimerTask() {
+        // Colored user list; the cell factory is installed once, rows only change through deltas
+        userListView.setCellFactory(lv -> new ListCell<String>() {
             @Override
-            public void run() {
-                updateUserList();
+            protected void updateItem(String item, boolean empty) {
+                super.updateItem(item, empty);
+                if (empty || item == null) {
+                    setText(null);
+                    setStyle("");
+                } else {
+                    setText(item);
+                    String color = userColors.get(item);
+                    // Make text readable based on background color
+                    setStyle("-fx-background-color: " + color + "; " +
+                            "-fx-text-fill: black; " +
+                            "-fx-padding: 5 10 5 10; " +
+                            "-fx-font-weight: bold;");
+                }
             }
-        }, 0, 1000); // Update every second
+        });
+
+        userListDrainer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drainUserDeltas();
+            }
+        };
+        userCountLabel.setText("Users: 0");
+
+        // Stats only need a glance once a second, not a redraw per message
+        statsRefresher = new Timeline(new KeyFrame(Duration.seconds(1), e -> refreshStats()));
+        statsRefresher.setCycleCount(Animation.INDEFINITE);
+        statsRefresher.play();
     }
 
-    public void updateUserList() {
-        Platform.runLater(() -> {
-            userListView.getItems().clear();
-            for (ClientHandler client : Server.clients) {
-                String username = client.getUsername();
-                userListView.getItems().add(username);
+    // FX thread, once a second: the counters are LongAdders, summing them is cheap
+    private void refreshStats() {
+        if (server == null) {
+            return;
+        }
+        ServerMetrics metrics = server.getMetrics();
+        long messagesIn = metrics.messagesIn.get();
+        long messagesOut = metrics.messagesOut.get();
+        long bytesIn = metrics.bytesIn.get();
+        long bytesOut = metrics.bytesOut.get();
+        statsLabel.setText(String.format(
+                "Connections  %d active, %d total%n"
+                        + "Messages/s   %d in, %d out%n"
+                        + "KB/s         %.1f in, %.1f out%n"
+                        + "Broadcast    p50 %s, p99 %s%n"
+                        + "Queued       %d (longest %d)%n"
+                        + "Disconnects  %d slow, %d errors",
+                server.getClients().size(), metrics.connectionsAccepted.get(),
+                messagesIn - lastMessagesIn, messagesOut - lastMessagesOut,
+                (bytesIn - lastBytesIn) / 1024.0, (bytesOut - lastBytesOut) / 1024.0,
+                formatNanos(metrics.broadcastTime.quantile(0.5)), formatNanos(metrics.broadcastTime.quantile(0.99)),
+                metrics.queueDepth(), metrics.maxQueueDepth(),
+                metrics.getDisconnects(ServerMetrics.Disconnect.SLOW_CONSUMER),
+                metrics.getDisconnects(ServerMetrics.Disconnect.ERROR)));
+        lastMessagesIn = messagesIn;
+        lastMessagesOut = messagesOut;
+        lastBytesIn = bytesIn;
+        lastBytesOut = bytesOut;
+    }
+
+    // Histogram bucket bounds, so "≤"
+    private static String formatNanos(long nanos) {
+        if (nanos == Long.MAX_VALUE) {
+            return "> 1 s";
+        }
+        if (nanos < 1_000_000) {
+            return "≤ " + nanos / 1_000 + " µs";
+        }
+        return "≤ " + nanos / 1_000_000 + " ms";
+    }
+
+    @Override
+    public void userJoined(String username) {
+        queueUserDelta(username, 1);
+    }
+
+    @Override
+    public void userLeft(String username) {
+        queueUserDelta(username, -1);
+    }
+
+    private void queueUserDelta(String username, int change) {
+        userDeltas.add(new UserDelta(username, change));
+        if (userListDrainScheduled.compareAndSet(false, true)) {
+            Platform.runLater(() -> userListDrainer.start());
+        }
+    }
+
+    // FX thread, at most once per pulse: fold every join/leave since the last frame
+    // into one net change per username, then touch the list once
+    private void drainUserDeltas() {
+        Map<String, Integer> net = new HashMap<>();
+        UserDelta delta;
+        while ((delta = userDeltas.poll()) != null) {
+            net.merge(delta.username(), delta.change(), Integer::sum);
+        }
+        if (net.isEmpty()) {
+            // Nothing left: stop asking for pulses until the next join or leave
+            userListDrainer.stop();
+            userListDrainScheduled.set(false);
+            if (!userDeltas.isEmpty() && userListDrainScheduled.compareAndSet(false, true)) {
+                userListDrainer.start();
+            }
+            return;
+        }
+
+        ObservableList<String> items = userListView.getItems();
+
+        // Removals in a single pass over the list
+        Map<String, Integer> toRemove = new HashMap<>();
+        List<String> toAdd = new ArrayList<>();
+        net.forEach((username, change) -> {
+            if (change < 0) {
+                toRemove.put(username, -change);
+            }
+            for (int i = 0; i < change; i++) {
+                toAdd.add(username);
 
                 // Assign random color if not already assigned
                 userColors.computeIfAbsent(username, k ->
                         String.format("#%06x", random.nextInt(0xFFFFFF)));
             }
-
-            // Apply random colors to user list
-            userListView.setCellFactory(lv -> new ListCell<String>() {
-                @Override
-                protected void updateItem(String item, boolean empty) {
-                    super.updateItem(item, empty);
-                    if (empty || item == null) {
-                        setText(null);
-                        setStyle("");
-                    } else {
-                        setText(item);
-                        String color = userColors.get(item);
-                        // Make text readable based on background color
-                        setStyle("-fx-background-color: " + color + "; " +
-                                "-fx-text-fill: black; " +
-                                "-fx-padding: 5 10 5 10; " +
-                                "-fx-font-weight: bold;");
-                    }
+        });
+        if (!toRemove.isEmpty()) {
+            items.removeIf(username -> {
+                Integer left = toRemove.get(username);
+                if (left == null || left == 0) {
+                    return false;
                 }
+                toRemove.put(username, left - 1);
+                return true;
             });
+        }
+        items.addAll(toAdd);
 
-            // Update user count
-            int count = Server.clients.size();
-            userCountLabel.setText("Users: " + count);
-        });
+        // Update user count
+        userCountLabel.setText("Users: " + items.size());
     }
 
-    public static void log(String message) {
-        Platform.runLater(() -> {
-            String timestamp = sdf.format(new Date());
-            HBox hbox = new HBox();
+    @Override
+    public void log(String message) {
+        pendingLog.add("[" + LocalTime.now().format(TIME) + "] " + message);
+        if (logDrainScheduled.compareAndSet(false, true)) {
+            Platform.runLater(() -> logDrainer.start());
+        }
+    }
+
+    // FX thread: move everything queued so far into the view as one change
+    private void drainLog() {
+        List<String> batch = new ArrayList<>();
+        String line;
+        while ((line = pendingLog.poll()) != null) {
+            batch.add(line);
+        }
+        if (!batch.isEmpty()) {
+            logBuffer.append(batch);
+            // Leave search results where they are
+            if (logListView.getItems() == logBuffer) {
+                logListView.scrollTo(logBuffer.size() - 1);
+            }
+            return;
+        }
+
+        // Nothing left: stop asking for pulses until the next log() call
+        logDrainer.stop();
+        logDrainScheduled.set(false);
+        if (!pendingLog.isEmpty() && logDrainScheduled.compareAndSet(false, true)) {
+            logDrainer.start();
+        }
+    }
+
+    // One reusable bubble per visible row, styled by the kind of event
+    private static class LogCell extends ListCell<String> {
+        private final Text text = new Text();
+        private final TextFlow flow = new TextFlow(text);
+        private final HBox hbox = new HBox(flow);
+
+        LogCell() {
             hbox.setAlignment(Pos.CENTER_LEFT);
             hbox.setPadding(new Insets(5, 10, 5, 10));
+        }
 
-            Text text = new Text("[" + timestamp + "] " + message);
-
-            TextFlow flow = new TextFlow(text);
+        @Override
+        protected void updateItem(String item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty || item == null) {
+                setGraphic(null);
+                return;
+            }
+            text.setText(item);
 
             // Different styling for different message types
-            if (message.contains("🟢")) {
+            if (item.contains("🟢")) {
                 flow.setStyle("-fx-background-color: #d4edda; -fx-background-radius: 15px; -fx-padding: 8 15 8 15;");
                 text.setFill(Color.DARKGREEN);
-            } else if (message.contains("🔴")) {
+            } else if (item.contains("🔴")) {
                 flow.setStyle("-fx-background-color: #f8d7da; -fx-background-radius: 15px; -fx-padding: 8 15 8 15;");
                 text.setFill(Color.DARKRED);
-            } else if (message.contains("❌")) {
+            } else if (item.contains("❌")) {
                 flow.setStyle("-fx-background-color: #f8d7da; -fx-background-radius: 15px; -fx-padding: 8 15 8 15;");
                 text.setFill(Color.RED);
-            } else if (message.contains("📋")) {
+            } else if (item.contains("📋")) {
                 flow.setStyle("-fx-background-color: #cce5ff; -fx-background-radius: 15px; -fx-padding: 8 15 8 15;");
                 text.setFill(Color.DARKBLUE);
             } else {
                 flow.setStyle("-fx-background-color: #e2e3e5; -fx-background-radius: 15px; -fx-padding: 8 15 8 15;");
                 text.setFill(Color.BLACK);
             }
-
-            hbox.getChildren().add(flow);
-            staticVBox.getChildren().add(hbox);
-        });
+            setGraphic(hbox);
+        }
     }
 
     private void updateStatus(String status, Color color) {
@@ -184,21 +351,61 @@ public class ServerController implements Initializable {
     public void stopServer() {
         if (server != null) {
             server.closeServerSocket();
-            if (userListUpdateTimer != null) {
-                userListUpdateTimer.cancel();
-            }
             log("🔴 Server stopped");
             updateStatus("STOPPED", Color.RED);
             stopButton.setDisable(true);
-            updateUserList();
         }
         // Stop JavaFX application
         Platform.exit();
         System.exit(0);
     }
 
+    // The index lookup and the disk reads run off the FX thread
+    private void search(String text) {
+        if (text == null || text.isBlank()) {
+            logListView.setItems(logBuffer);
+            searchStatusLabel.setText("");
+            return;
+        }
+        MessageJournal journal = server != null ? server.getJournal() : null;
+        if (journal == null || journal.getIndex() == null) {
+            searchStatusLabel.setText("Search is off");
+            return;
+        }
+
+        SearchQuery query;
+        try {
+            query = SearchQuery.parse(text);
+        } catch (DateTimeParseException e) {
+            searchStatusLabel.setText("Bad time: " + e.getParsedString());
+            return;
+        }
+        searchStatusLabel.setText("Searching...");
+        CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            List<String> lines = new ArrayList<>();
+            String status;
+            try {
+                List<JournalRecord> results = journal.search(query, SEARCH_RESULTS);
+                for (int i = results.size() - 1; i >= 0; i--) {
+                    JournalRecord record = results.get(i);
+                    lines.add("💬 #" + record.getRoom() + " " + record.getText());
+                }
+                status = results.size() + " result(s) in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms";
+            } catch (IOException e) {
+                status = "Search failed: " + e.getMessage();
+            }
+            String finalStatus = status;
+            Platform.runLater(() -> {
+                logListView.setItems(FXCollections.observableArrayList(lines));
+                searchStatusLabel.setText(finalStatus);
+            });
+        });
+    }
+
     private void clearLog() {
-        vbox_messages.getChildren().clear();
+        logBuffer.clear();
         log("📋 Log cleared");
     }
 
@@ -48,6 +48,13 @@ public class ServerLauncher {
                 prop.load(is);
                 IP = prop.getProperty("server.ip", IP);
                 PORT = Integer.parseInt(prop.getProperty("server.port", String.valueOf(PORT)));
+
+                // Pass the remaining settings on as system properties (-D flags still win)
+                for (String key : prop.stringPropertyNames()) {
+                    if (System.getProperty(key) == null) {
+                        System.setProperty(key, prop.getProperty(key));
+                    }
+                }
             } else {
                 System.out.println("Config file not found! Using defaults.");
             }
@@ -56,13 +63,25 @@ public class ServerLauncher {
             System.out.println("Using default IP and port.");
         }
 
+        // --headless runs without any window (also server.headless=true in config)
+        boolean headless = Boolean.getBoolean("server.headless");
+        for (String arg : args) {
+            if (arg.equals("--headless")) {
+                headless = true;
+            }
+        }
+
         // Override port from command line if provided
-        if (args.length >= 1) {
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                continue;
+            }
             try {
-                PORT = Integer.parseInt(args[0]);
+                PORT = Integer.parseInt(arg);
             } catch (NumberFormatException e) {
                 System.out.println("Invalid port argument. Using config/default: " + PORT);
             }
+            break;
         }
 
         System.out.println("Server starting at IP=" + IP + " PORT=" + PORT);
@@ -71,7 +90,29 @@ public class ServerLauncher {
         System.setProperty("server.ip", IP);
         System.setProperty("server.port", String.valueOf(PORT));
 
-        // Launch JavaFX application
+        if (headless) {
+            runHeadless();
+        } else {
+            launchGui(args);
+        }
+    }
+
+    // No JavaFX class is loaded on this path, so it runs on hosts without a display
+    private static void runHeadless() {
+        Server server;
+        try {
+            server = Server.create(PORT, new ConsoleServerListener());
+        } catch (IOException e) {
+            System.out.println("❌ Error starting server on port " + PORT + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::closeServerSocket));
+        server.startServer();
+    }
+
+    // Kept in its own method so JavaFX is only touched when the GUI is wanted
+    private static void launchGui(String[] args) {
         Application.launch(ServerApplication.class, args);
     }
 
@@ -0,0 +1,13 @@
+package org.example.server;
+
+// What the server reports to whoever is watching it: the JavaFX window
+// (ServerController) or the console when running headless.
+public interface ServerListener {
+
+    void log(String message);
+
+    // User list deltas, called from connection threads as clients come and go
+    void userJoined(String username);
+
+    void userLeft(String username);
+}
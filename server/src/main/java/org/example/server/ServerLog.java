@@ -0,0 +1,305 @@
+package org.example.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// The server's log pipeline. A caller only captures the event and pushes it onto a
+// lock-free queue; the "log-writer" thread does the slow part: formatting, writing
+// JSON lines to a size-rotated file and passing messages to subscribers (the server
+// window or the console). When the writer falls behind, events are dropped rather
+// than making a connection thread wait, and the writer reports how many it lost.
+public class ServerLog {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR,
+        OFF; // as a threshold only: nothing gets through
+
+        boolean passes(Level threshold) {
+            return threshold != OFF && ordinal() >= threshold.ordinal();
+        }
+    }
+
+    public record Event(long timestamp, Level level, String thread, String message, Throwable error) {
+    }
+
+    private static final int MAX_BATCH = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Level fileLevel;
+    private final Level viewLevel;
+    // Null when not logging to a file
+    private final Path file;
+    private final long maxBytes;
+    private final int maxFiles;
+    private final int queueCapacity;
+
+    private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final List<ServerListener> subscribers = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean writerParked = new AtomicBoolean(false);
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // Writer thread only
+    private OutputStream out;
+    private long fileBytes;
+    private long droppedReported;
+
+    public ServerLog(Level fileLevel, Level viewLevel, Path file, long maxBytes, int maxFiles, int queueCapacity) {
+        this.fileLevel = fileLevel;
+        this.viewLevel = viewLevel;
+        this.file = fileLevel == Level.OFF ? null : file;
+        this.maxBytes = maxBytes;
+        this.maxFiles = Math.max(0, maxFiles);
+        this.queueCapacity = queueCapacity;
+
+        writer = new Thread(this::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static ServerLog fromConfig() {
+        String file = System.getProperty("server.log.file", "logs/server.log");
+        return new ServerLog(
+                Level.valueOf(System.getProperty("server.log.level", "INFO").toUpperCase()),
+                Level.valueOf(System.getProperty("server.log.viewLevel", "DEBUG").toUpperCase()),
+                file.isBlank() ? null : Path.of(file),
+                Long.getLong("server.log.maxBytes", 10L * 1024 * 1024),
+                Integer.getInteger("server.log.maxFiles", 5),
+                Integer.getInteger("server.log.queueCapacity", 65_536));
+    }
+
+    // Subscribers are called on the writer thread with every event at or above viewLevel
+    public void subscribe(ServerListener subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public boolean isEnabled(Level level) {
+        return (file != null && level.passes(fileLevel))
+                || (!subscribers.isEmpty() && level.passes(viewLevel));
+    }
+
+    public void log(Level level, String message, Throwable error) {
+        if (!running || !isEnabled(level)) {
+            return;
+        }
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.offer(new Event(System.currentTimeMillis(), level, Thread.currentThread().getName(), message, error));
+        if (writerParked.get() && writerParked.compareAndSet(true, false)) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    // Writes out whatever is still queued, then stops the writer
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        openFile();
+        while (true) {
+            int written = 0;
+            Event event;
+            while (written < MAX_BATCH && (event = queue.poll()) != null) {
+                queued.decrementAndGet();
+                write(event);
+                written++;
+            }
+            if (written > 0) {
+                continue;
+            }
+
+            reportDropped();
+            flush();
+            if (!running) {
+                break;
+            }
+            // Park only once the queue is seen empty after saying so, or a producer
+            // that checked writerParked before we set it would leave its event waiting
+            writerParked.set(true);
+            if (queue.isEmpty() && running) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerParked.set(false);
+        }
+        closeFile();
+    }
+
+    private void write(Event event) {
+        if (file != null && out != null && event.level().passes(fileLevel)) {
+            try {
+                // Counted as encoded, so maxBytes holds for emoji and non-ASCII names too
+                byte[] line = toJson(event).getBytes(StandardCharsets.UTF_8);
+                out.write(line);
+                fileBytes += line.length;
+                if (fileBytes >= maxBytes) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                closeFile();
+                deliver(new Event(System.currentTimeMillis(), Level.ERROR, writer.getName(),
+                        "❌ Log file write failed, file logging disabled: " + e.getMessage(), null));
+            }
+        }
+        if (event.level().passes(viewLevel)) {
+            deliver(event);
+        }
+    }
+
+    private void deliver(Event event) {
+        String message = event.error() == null ? event.message() : event.message() + " (" + event.error() + ")";
+        for (ServerListener subscriber : subscribers) {
+            try {
+                subscriber.log(message);
+            } catch (RuntimeException e) {
+                // One broken subscriber must not stop the log for everyone else
+            }
+        }
+    }
+
+    private void reportDropped() {
+        long total = dropped.sum();
+        if (total > droppedReported) {
+            write(new Event(System.currentTimeMillis(), Level.WARN, writer.getName(),
+                    "⚠️ Log queue full: dropped " + (total - droppedReported) + " event(s)", null));
+            droppedReported = total;
+        }
+    }
+
+    // One JSON object per line: {"ts":...,"level":...,"thread":...,"msg":...[,"error":...]}
+    static String toJson(Event event) {
+        StringBuilder line = new StringBuilder(96 + event.message().length());
+        line.append("{\"ts\":\"").append(DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(event.timestamp())))
+                .append("\",\"level\":\"").append(event.level())
+                .append("\",\"thread\":");
+        appendJsonString(line, event.thread());
+        line.append(",\"msg\":");
+        appendJsonString(line, event.message());
+        if (event.error() != null) {
+            StringWriter trace = new StringWriter();
+            event.error().printStackTrace(new PrintWriter(trace));
+            line.append(",\"error\":");
+            appendJsonString(line, trace.toString());
+        }
+        return line.append("}\n").toString();
+    }
+
+    private static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    private void openFile() {
+        if (file == null) {
+            return;
+        }
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            fileBytes = Files.exists(file) ? Files.size(file) : 0;
+            out = new BufferedOutputStream(Files.newOutputStream(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+        } catch (IOException e) {
+            out = null;
+            deliver(new Event(System.currentTimeMillis(), Level.ERROR, writer.getName(),
+                    "❌ Could not open the log file " + file.toAbsolutePath() + ": " + e.getMessage(), null));
+        }
+    }
+
+    // server.log -> server.log.1 -> ... -> server.log.<maxFiles>, the oldest is overwritten
+    private void rotate() throws IOException {
+        out.close();
+        out = null;
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path older = rotated(i);
+            if (Files.exists(older)) {
+                Files.move(older, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(file);
+        }
+        openFile();
+    }
+
+    private Path rotated(int generation) {
+        return file.resolveSibling(file.getFileName() + "." + generation);
+    }
+
+    private void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            closeFile();
+        }
+    }
+
+    private void closeFile() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // Nothing left to report it to
+        }
+        out = null;
+    }
+}
@@ -0,0 +1,138 @@
+package org.example.server;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+// Everything one Server counts about itself. Connections record into these from
+// their own threads; the /metrics endpoint and the stats panel read them.
+public class ServerMetrics {
+
+    // Why a connection ended, exported as the reason label of chat_disconnects_total
+    public enum Disconnect {
+        LEAVE,             // said bye
+        EOF,               // closed the socket without saying bye
+        ERROR,             // I/O error
+        SLOW_CONSUMER,     // outbound queue overflowed
+        MESSAGE_TOO_LONG,  // a line or frame bigger than the read buffer
+        IDLE,              // stopped answering pings
+        RATE_LIMITED,      // kept sending faster than its limits
+        SHUTDOWN;          // the server stopped
+
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final long MICROS = 1_000;
+    private static final long MILLIS = 1_000_000;
+
+    private final Server server;
+    private final MetricsRegistry registry = new MetricsRegistry();
+
+    public final MetricsRegistry.Counter connectionsAccepted =
+            registry.counter("chat_connections_accepted_total", "Connections accepted");
+    public final MetricsRegistry.Counter messagesIn =
+            registry.counter("chat_messages_in_total", "Messages and commands received from clients");
+    public final MetricsRegistry.Counter messagesOut =
+            registry.counter("chat_messages_out_total", "Messages queued for clients");
+    public final MetricsRegistry.Counter bytesIn =
+            registry.counter("chat_bytes_in_total", "Bytes read from client sockets");
+    public final MetricsRegistry.Counter bytesOut =
+            registry.counter("chat_bytes_out_total", "Bytes written to client sockets");
+    public final MetricsRegistry.Counter broadcasts =
+            registry.counter("chat_broadcasts_total", "Broadcasts sent");
+    public final MetricsRegistry.Counter broadcastRecipients =
+            registry.counter("chat_broadcast_recipients_total", "Recipients summed over all broadcasts");
+    public final MetricsRegistry.Histogram broadcastTime = registry.histogram(
+            "chat_broadcast_seconds", "Time to fan one broadcast out to every recipient's queue",
+            MICROS, 10 * MICROS, 50 * MICROS, 100 * MICROS, 500 * MICROS,
+            MILLIS, 5 * MILLIS, 10 * MILLIS, 50 * MILLIS, 100 * MILLIS, 1000 * MILLIS);
+    public final MetricsRegistry.Counter rateLimited =
+            registry.counter("chat_rate_limited_total", "Messages that found a client's token bucket empty");
+    public final MetricsRegistry.Counter rateLimitMutes =
+            registry.counter("chat_rate_limit_mutes_total", "Clients muted for flooding");
+    public final MetricsRegistry.Counter pingsSent =
+            registry.counter("chat_heartbeat_pings_total", "Pings sent to quiet clients");
+    public final MetricsRegistry.Counter presenceEvents =
+            registry.counter("chat_presence_events_total", "Joins, leaves and room moves seen by the presence digest");
+    public final MetricsRegistry.Counter presenceDigests =
+            registry.counter("chat_presence_digests_total", "Presence digests sent to a room");
+    public final MetricsRegistry.Counter clusterMessagesOut =
+            registry.counter("chat_cluster_messages_out_total", "Events sent to cluster peers, summed over peers");
+    public final MetricsRegistry.Counter clusterBatchesOut =
+            registry.counter("chat_cluster_batches_out_total", "Batches sent to cluster peers");
+    public final MetricsRegistry.Counter clusterMessagesIn =
+            registry.counter("chat_cluster_messages_in_total", "Events applied from cluster peers");
+    public final MetricsRegistry.Counter clusterBatchesIn =
+            registry.counter("chat_cluster_batches_in_total", "Batches received from cluster peers");
+    public final MetricsRegistry.Counter clusterDuplicates =
+            registry.counter("chat_cluster_duplicates_total", "Events from cluster peers dropped as already applied");
+    private final Map<Disconnect, MetricsRegistry.Counter> disconnects = new EnumMap<>(Disconnect.class);
+
+    public ServerMetrics(Server server) {
+        this.server = server;
+        for (Disconnect reason : Disconnect.values()) {
+            disconnects.put(reason, registry.counter("chat_disconnects_total",
+                    "reason=\"" + reason.label() + "\"", "Connections closed, by reason"));
+        }
+
+        registry.gauge("chat_connections_active", "Clients currently joined",
+                () -> server.getClients().size());
+        registry.gauge("chat_rooms", "Rooms with at least one member",
+                () -> server.getRooms().names().size());
+        registry.gauge("chat_outbound_queue_depth", "Messages waiting in all outbound queues",
+                this::queueDepth);
+        registry.gauge("chat_outbound_queue_depth_max", "Longest outbound queue",
+                this::maxQueueDepth);
+        registry.gauge("chat_outbound_dropped", "Messages dropped from the queues of connected clients",
+                () -> {
+                    long dropped = 0;
+                    for (ClientConnection client : server.getClients().all()) {
+                        dropped += client.getDroppedMessages();
+                    }
+                    return dropped;
+                });
+        registry.gauge("chat_journal_pending", "Journal records waiting for the disk",
+                () -> server.getJournal() != null ? server.getJournal().getPendingCount() : 0);
+        registry.gauge("chat_journal_dropped", "Journal records dropped because the disk fell behind",
+                () -> server.getJournal() != null ? server.getJournal().getDroppedCount() : 0);
+        registry.gauge("chat_heartbeat_timeouts_pending", "Idle timeouts waiting in the timer wheel",
+                () -> server.getHeartbeat() != null ? server.getHeartbeat().getPendingCount() : 0);
+        registry.gauge("chat_cluster_peers_connected", "Cluster peers our links are connected to",
+                () -> server.getCluster() != null ? server.getCluster().getConnectedPeerCount() : 0);
+        registry.gauge("chat_cluster_remote_users", "Users connected to the other nodes of the cluster",
+                () -> server.getCluster() != null ? server.getCluster().getRemoteUserCount() : 0);
+        registry.gauge("chat_cluster_dropped", "Events not relayed because a peer link fell behind",
+                () -> server.getCluster() != null ? server.getCluster().getDroppedCount() : 0);
+        registry.gauge("chat_log_dropped", "Log events dropped because the log writer fell behind",
+                () -> server.getLog().getDroppedCount());
+    }
+
+    public long queueDepth() {
+        long depth = 0;
+        for (ClientConnection client : server.getClients().all()) {
+            depth += client.getQueueDepth();
+        }
+        return depth;
+    }
+
+    public long maxQueueDepth() {
+        long max = 0;
+        for (ClientConnection client : server.getClients().all()) {
+            max = Math.max(max, client.getQueueDepth());
+        }
+        return max;
+    }
+
+    public void disconnected(Disconnect reason) {
+        disconnects.get(reason).increment();
+    }
+
+    public long getDisconnects(Disconnect reason) {
+        return disconnects.get(reason).get();
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+}
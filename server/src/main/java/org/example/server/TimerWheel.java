@@ -0,0 +1,130 @@
+package org.example.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Hashed timer wheel: one thread and an array of buckets, one bucket per tick. A timeout
+// goes into the bucket its deadline falls in (with the number of full turns still to
+// wait), so scheduling and cancelling are O(1) and each tick only looks at one bucket,
+// however many timeouts are pending. Deadlines are rounded up to the next tick.
+//
+// schedule() may be called from any thread: new timeouts wait in a lock-free queue
+// until the wheel thread puts them in their bucket. Tasks run on the wheel thread and
+// must not block.
+public class TimerWheel {
+
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private volatile boolean cancelled;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // Dropped (without running) the next time the wheel reaches its bucket
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long start = System.nanoTime();
+    private final Thread thread;
+    private volatile boolean running = true;
+    // Wheel thread only
+    private long tick;
+
+    // wheelSize is rounded up to a power of two
+    public TimerWheel(long tickMillis, int wheelSize, String threadName) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+
+        thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        pending.incrementAndGet();
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    // Timeouts scheduled and not yet run or dropped, cancelled ones included
+    public int size() {
+        return pending.get();
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        OutboundQueue.neverBlockThisThread();
+        while (running) {
+            long tickDeadline = start + tick * tickNanos;
+            long wait = tickDeadline - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            transferIncoming();
+            expire((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.cancelled) {
+                pending.decrementAndGet();
+                continue;
+            }
+            // Ticks from the start of the wheel, rounded up; never in the past
+            long dueTick = Math.max(tick, (timeout.deadline - start + tickNanos - 1) / tickNanos);
+            timeout.rounds = (dueTick - tick) / buckets.length;
+            int bucket = (int) (dueTick & mask);
+            timeout.next = buckets[bucket];
+            buckets[bucket] = timeout;
+        }
+    }
+
+    private void expire(int bucket) {
+        Timeout timeout = buckets[bucket];
+        buckets[bucket] = null;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            if (timeout.cancelled) {
+                pending.decrementAndGet();
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+                timeout.next = buckets[bucket];
+                buckets[bucket] = timeout;
+            } else {
+                pending.decrementAndGet();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    // One failing task must not stop every other timeout
+                }
+            }
+            timeout = next;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.server;
+
+import java.util.concurrent.TimeUnit;
+
+// Refills at ratePerSecond up to burst. Owned by one reader (a connection's read
+// thread or its NIO loop), so there is nothing to lock: it is two longs and a double.
+//
+// consume() always takes what it is asked for, going into debt if it has to, and says
+// how long until the debt is paid off. A reader that waits that long before reading
+// again is held to the rate on average, however big the individual messages are.
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double ratePerSecond, double burst, long now) {
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = now;
+    }
+
+    // Returns 0 if there was enough, otherwise the nanoseconds until the bucket is back at zero
+    public long consume(double amount, long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        tokens -= amount;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+    }
+}
@@ -0,0 +1,128 @@
+package org.example.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Who is in each room, local and remote, sorted by name for allUsers. A page is a walk
+// of at most pageSize entries from the cursor (or the prefix) on, so the cost of one
+// request no longer grows with the size of the room.
+//
+// Keys are lower-case names, with "@node" appended for users on other cluster nodes;
+// a key is also the cursor a page hands out for the next one. Finished pages are kept
+// for cacheMillis, so a room full of clients asking at once all get the same Frame,
+// built and encoded once.
+public class UserIndex {
+
+    public record Listing(Frame frame, String next) {
+    }
+
+    private static final class Room {
+        final ConcurrentSkipListMap<String, String> users = new ConcurrentSkipListMap<>();
+        // ConcurrentSkipListMap.size() walks the whole map
+        final AtomicInteger size = new AtomicInteger();
+    }
+
+    private record CachedListing(Listing listing, long created) {
+    }
+
+    // Beyond this many cached pages the cache starts over
+    private static final int CACHE_LIMIT = 1024;
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CachedListing> cache = new ConcurrentHashMap<>();
+    private final long cacheNanos;
+
+    public UserIndex(long cacheMillis) {
+        this.cacheNanos = TimeUnit.MILLISECONDS.toNanos(cacheMillis);
+    }
+
+    public static UserIndex fromConfig() {
+        return new UserIndex(Long.getLong("server.userList.cacheMillis", 1000));
+    }
+
+    // nodeId is null for our own clients
+    public void add(String room, String username, String nodeId) {
+        // Inside compute() so a concurrent remove() cannot drop the room we are adding to
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                members = new Room();
+            }
+            String label = nodeId != null ? username + " @" + nodeId : username;
+            if (members.users.put(key(username, nodeId), label) == null) {
+                members.size.incrementAndGet();
+            }
+            return members;
+        });
+    }
+
+    public void remove(String room, String username, String nodeId) {
+        rooms.computeIfPresent(room, (name, members) -> {
+            if (members.users.remove(key(username, nodeId)) != null) {
+                members.size.decrementAndGet();
+            }
+            return members.users.isEmpty() ? null : members;
+        });
+    }
+
+    // Up to limit users of the room whose name starts with prefix (may be empty),
+    // after the cursor (null for the first page)
+    public Listing list(String room, String prefix, String after, int limit) {
+        String cacheKey = room + '\n' + prefix + '\n' + after + '\n' + limit;
+        long now = System.nanoTime();
+        CachedListing cached = cache.get(cacheKey);
+        if (cached != null && now - cached.created() < cacheNanos) {
+            return cached.listing();
+        }
+
+        Room members = rooms.get(room);
+        String from = prefix.toLowerCase();
+        StringBuilder list = new StringBuilder(prefix.isEmpty()
+                ? "📋 Active users in #" + room + " (" + (members != null ? members.size.get() : 0) + "):"
+                : "📋 Active users in #" + room + " starting with \"" + prefix + "\":");
+        String last = null;
+        String next = null;
+        if (members != null) {
+            // One view from the later of prefix and cursor: a tailMap() of a subMap() would
+            // throw for a cursor outside the prefix's range
+            boolean afterCursor = after != null && after.compareTo(from) >= 0;
+            String lower = afterCursor ? after : from;
+            ConcurrentNavigableMap<String, String> range;
+            if (prefix.isEmpty()) {
+                range = members.users.tailMap(lower, !afterCursor);
+            } else {
+                String upper = from + Character.MAX_VALUE;
+                range = lower.compareTo(upper) < 0
+                        ? members.users.subMap(lower, !afterCursor, upper, false)
+                        : new ConcurrentSkipListMap<>();
+            }
+            int count = 0;
+            for (Map.Entry<String, String> user : range.entrySet()) {
+                if (count == limit) {
+                    next = last;
+                    break;
+                }
+                list.append('\n').append("   • ").append(user.getValue());
+                last = user.getKey();
+                count++;
+            }
+        }
+
+        Listing listing = new Listing(new Frame(Frame.USER_LIST, 0, list.toString()), next);
+        if (cacheNanos > 0) {
+            if (cache.size() >= CACHE_LIMIT) {
+                cache.clear();
+            }
+            cache.put(cacheKey, new CachedListing(listing, now));
+        }
+        return listing;
+    }
+
+    private static String key(String username, String nodeId) {
+        String key = username.toLowerCase();
+        return nodeId != null ? key + "@" + nodeId.toLowerCase() : key;
+    }
+}